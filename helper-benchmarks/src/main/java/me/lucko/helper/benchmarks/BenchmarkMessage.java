@@ -0,0 +1,87 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.benchmarks;
+
+import me.lucko.helper.messaging.conversation.ConversationMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A message used by the messaging benchmarks, with a payload of a configurable size.
+ */
+public class BenchmarkMessage implements ConversationMessage {
+
+    /**
+     * Creates a message with roughly the given number of payload entries.
+     *
+     * @param entries the number of payload entries
+     * @return a new message
+     */
+    public static BenchmarkMessage create(int entries) {
+        List<String> payload = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            payload.add("entry-" + i);
+        }
+        return new BenchmarkMessage(UUID.randomUUID(), System.currentTimeMillis(), payload);
+    }
+
+    private final UUID id;
+    private final long timestamp;
+    private final List<String> payload;
+
+    public BenchmarkMessage(UUID id, long timestamp, List<String> payload) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates a reply to this message, in the same conversation.
+     *
+     * @return a reply
+     */
+    public BenchmarkMessage reply() {
+        return new BenchmarkMessage(this.id, System.currentTimeMillis(), this.payload);
+    }
+
+    @Nonnull
+    @Override
+    public UUID getConversationId() {
+        return this.id;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public List<String> getPayload() {
+        return this.payload;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.benchmarks;
+
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.messaging.codec.Codec;
+import me.lucko.helper.messaging.codec.CompressedCodec;
+import me.lucko.helper.messaging.codec.Compression;
+import me.lucko.helper.messaging.codec.GZipCodec;
+import me.lucko.helper.messaging.codec.GsonCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of encoding and decoding messages with the messaging codecs.
+ *
+ * <p>{@link GsonCodec} is the uncompressed baseline, {@link GZipCodec} is the format
+ * used by default, and the {@link CompressedCodec} variants are the alternatives which
+ * can be selected with the {@link me.lucko.helper.messaging.codec.Message} annotation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"1", "64", "1024"})
+    public int entries;
+
+    private final TypeToken<BenchmarkMessage> type = TypeToken.of(BenchmarkMessage.class);
+
+    private Codec<BenchmarkMessage> gson;
+    private Codec<BenchmarkMessage> gzip;
+    private Codec<BenchmarkMessage> deflate;
+    private Codec<BenchmarkMessage> lzf;
+
+    private BenchmarkMessage message;
+    private byte[] gsonEncoded;
+    private byte[] gzipEncoded;
+    private byte[] deflateEncoded;
+    private byte[] lzfEncoded;
+
+    @Setup
+    public void setup() throws Exception {
+        this.gson = new GsonCodec<>(this.type);
+        this.gzip = new GZipCodec<>(new GsonCodec<>(this.type));
+        this.deflate = new CompressedCodec<>(new GsonCodec<>(this.type), Compression.DEFLATE);
+        this.lzf = new CompressedCodec<>(new GsonCodec<>(this.type), Compression.LZF);
+
+        this.message = BenchmarkMessage.create(this.entries);
+        this.gsonEncoded = this.gson.encode(this.message);
+        this.gzipEncoded = this.gzip.encode(this.message);
+        this.deflateEncoded = this.deflate.encode(this.message);
+        this.lzfEncoded = this.lzf.encode(this.message);
+    }
+
+    @Benchmark
+    public byte[] gsonEncode() throws Exception {
+        return this.gson.encode(this.message);
+    }
+
+    @Benchmark
+    public BenchmarkMessage gsonDecode() throws Exception {
+        return this.gson.decode(this.gsonEncoded);
+    }
+
+    @Benchmark
+    public byte[] gzipEncode() throws Exception {
+        return this.gzip.encode(this.message);
+    }
+
+    @Benchmark
+    public BenchmarkMessage gzipDecode() throws Exception {
+        return this.gzip.decode(this.gzipEncoded);
+    }
+
+    @Benchmark
+    public byte[] deflateEncode() throws Exception {
+        return this.deflate.encode(this.message);
+    }
+
+    @Benchmark
+    public BenchmarkMessage deflateDecode() throws Exception {
+        return this.deflate.decode(this.deflateEncoded);
+    }
+
+    @Benchmark
+    public byte[] lzfEncode() throws Exception {
+        return this.lzf.encode(this.message);
+    }
+
+    @Benchmark
+    public BenchmarkMessage lzfDecode() throws Exception {
+        return this.lzf.decode(this.lzfEncoded);
+    }
+}
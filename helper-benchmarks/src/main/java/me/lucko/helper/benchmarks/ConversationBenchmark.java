@@ -0,0 +1,107 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.benchmarks;
+
+import me.lucko.helper.messaging.conversation.ConversationChannel;
+import me.lucko.helper.messaging.conversation.ConversationChannelAgent;
+import me.lucko.helper.messaging.conversation.ConversationReply;
+import me.lucko.helper.messaging.conversation.ConversationReplyListener;
+import me.lucko.helper.messaging.loopback.LoopbackMessenger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Measures the round trip latency of a {@link ConversationChannel} request and its reply,
+ * over a {@link LoopbackMessenger}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversationBenchmark {
+
+    /** If the loopback messenger should pass messages without encoding them */
+    @Param({"false", "true"})
+    public boolean skipCodecs;
+
+    private ConversationChannel<BenchmarkMessage, BenchmarkMessage> channel;
+    private List<String> payload;
+    private ConversationChannelAgent<BenchmarkMessage, BenchmarkMessage> responder;
+
+    @Setup
+    public void setup() {
+        LoopbackMessenger messenger = new LoopbackMessenger(this.skipCodecs);
+        this.channel = messenger.getConversationChannel("benchmark", BenchmarkMessage.class, BenchmarkMessage.class);
+        this.responder = this.channel.newAgent((agent, message) -> ConversationReply.of(message.reply()));
+        this.payload = BenchmarkMessage.create(16).getPayload();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.responder.close();
+        this.channel.close();
+    }
+
+    @Benchmark
+    public BenchmarkMessage roundTrip() throws Exception {
+        BenchmarkMessage request = new BenchmarkMessage(UUID.randomUUID(), System.currentTimeMillis(), this.payload);
+        CompletableFuture<BenchmarkMessage> reply = new CompletableFuture<>();
+        this.channel.sendMessage(request, new ConversationReplyListener<BenchmarkMessage>() {
+            @Nonnull
+            @Override
+            public RegistrationAction onReply(@Nonnull BenchmarkMessage message) {
+                reply.complete(message);
+                return RegistrationAction.STOP_LISTENING;
+            }
+
+            @Override
+            public void onTimeout(@Nonnull List<BenchmarkMessage> replies) {
+                reply.completeExceptionally(new IllegalStateException("No reply received"));
+            }
+        }, 5, TimeUnit.SECONDS);
+        return reply.get();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.benchmarks;
+
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.messaging.AbstractMessenger;
+import me.lucko.helper.messaging.Channel;
+import me.lucko.helper.messaging.ChannelAgent;
+import me.lucko.helper.messaging.loopback.LoopbackMessenger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes for a message to be dispatched to the listeners of a channel.
+ *
+ * <p>Each operation waits until every listener has received the message, so the
+ * results include decoding the message, finding the channels and agents it should be
+ * passed to, and handing it to the async executor the listeners are called on.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessengerDispatchBenchmark {
+    private static final String CHANNEL = "benchmark";
+
+    @Param({"1", "8"})
+    public int listeners;
+
+    private final Semaphore received = new Semaphore(0);
+    private final List<ChannelAgent<?>> agents = new ArrayList<>();
+
+    private AbstractMessenger messenger;
+    private byte[] encoded;
+
+    private LoopbackMessenger loopback;
+    private Channel<BenchmarkMessage> loopbackChannel;
+    private BenchmarkMessage message;
+
+    @Setup
+    public void setup() throws Exception {
+        TypeToken<BenchmarkMessage> type = TypeToken.of(BenchmarkMessage.class);
+        this.message = BenchmarkMessage.create(16);
+
+        // a messenger which only receives, with pre-encoded input
+        this.messenger = new AbstractMessenger((channel, message) -> {}, channel -> {}, channel -> {});
+        Channel<BenchmarkMessage> channel = this.messenger.getChannel(CHANNEL, type);
+        this.encoded = channel.getCodec().encode(this.message);
+        addListeners(channel);
+
+        // a loopback messenger which passes the sent object straight to the receivers
+        this.loopback = new LoopbackMessenger(true);
+        this.loopbackChannel = this.loopback.getChannel(CHANNEL, type);
+        addListeners(this.loopbackChannel);
+    }
+
+    private void addListeners(Channel<BenchmarkMessage> channel) {
+        for (int i = 0; i < this.listeners; i++) {
+            this.agents.add(channel.newAgent((agent, message) -> this.received.release()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.agents.forEach(ChannelAgent::close);
+        this.agents.clear();
+    }
+
+    @Benchmark
+    public void dispatchEncoded() throws InterruptedException {
+        this.messenger.registerIncomingMessage(CHANNEL, this.encoded);
+        this.received.acquire(this.listeners);
+    }
+
+    @Benchmark
+    public void dispatchObject() throws InterruptedException {
+        this.loopbackChannel.sendMessage(this.message);
+        this.received.acquire(this.listeners);
+    }
+}
@@ -25,12 +25,16 @@
 
 package me.lucko.helper.redis;
 
+import com.google.common.reflect.TypeToken;
+
 import me.lucko.helper.messaging.Messenger;
 import me.lucko.helper.terminable.Terminable;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
+import java.util.Objects;
+
 import javax.annotation.Nonnull;
 
 /**
@@ -54,4 +58,42 @@ public interface Redis extends Terminable, Messenger {
     @Nonnull
     Jedis getJedis();
 
+    /**
+     * Enables replay for the given channel.
+     *
+     * <p>Messages sent to the channel are also appended to a capped Redis Stream, and are
+     * received by reading from that stream rather than by pub/sub. Messages sent while this
+     * instance was disconnected from Redis are then received once it reconnects.</p>
+     *
+     * <p>Replay must be enabled by publishers of the channel for the messages to be
+     * available to read.</p>
+     *
+     * @param channel the channel name
+     */
+    void enableReplay(@Nonnull String channel);
+
+    /**
+     * Gets a work channel by name.
+     *
+     * @param name the name of the channel
+     * @param type the channel message typetoken
+     * @param <T> the channel message type
+     * @return a work channel
+     */
+    @Nonnull
+    <T> WorkChannel<T> getWorkChannel(@Nonnull String name, @Nonnull TypeToken<T> type);
+
+    /**
+     * Gets a work channel by name.
+     *
+     * @param name the name of the channel
+     * @param clazz the channel message class
+     * @param <T> the channel message type
+     * @return a work channel
+     */
+    @Nonnull
+    default <T> WorkChannel<T> getWorkChannel(@Nonnull String name, @Nonnull Class<T> clazz) {
+        return getWorkChannel(name, TypeToken.of(Objects.requireNonNull(clazz)));
+    }
+
 }
@@ -0,0 +1,99 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis;
+
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.interfaces.TypeAware;
+import me.lucko.helper.messaging.codec.Codec;
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.terminable.Terminable;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A channel which distributes messages between consumers, backed by a Redis Stream
+ * and consumer group.
+ *
+ * <p>Unlike a {@link me.lucko.helper.messaging.Channel}, each message is only handled by
+ * one consumer across the network. Messages are acknowledged once handled successfully.
+ * Messages which fail, or whose consumer goes offline before handling them, are
+ * reclaimed and retried by another consumer after a timeout, up to a maximum number
+ * of deliveries.</p>
+ *
+ * <p>As messages may be retried, handlers should be idempotent.</p>
+ *
+ * @param <T> the message type
+ */
+public interface WorkChannel<T> extends TypeAware<T> {
+
+    /**
+     * Gets the name of the channel.
+     *
+     * @return the channel name
+     */
+    @Nonnull
+    String getName();
+
+    /**
+     * Gets the channels message type.
+     *
+     * @return the channels message type.
+     */
+    @Override
+    @Nonnull
+    TypeToken<T> getType();
+
+    /**
+     * Gets the channels codec.
+     *
+     * @return the codec
+     */
+    @Nonnull
+    Codec<T> getCodec();
+
+    /**
+     * Submits a message to the channel, to be handled by one consumer.
+     *
+     * @param message the message
+     * @return a promise which will complete once the message has been added to the stream
+     */
+    @Nonnull
+    Promise<Void> submit(@Nonnull T message);
+
+    /**
+     * Starts consuming messages from the channel on this instance.
+     *
+     * <p>Only a single handler can be registered per channel at once.</p>
+     *
+     * @param handler the handler
+     * @return a terminable which stops consuming messages when closed
+     * @throws IllegalStateException if a handler is already registered
+     */
+    @Nonnull
+    Terminable consume(@Nonnull WorkHandler<T> handler);
+
+}
@@ -0,0 +1,58 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis.plugin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Calculates reconnect delays using exponential backoff with jitter, so that many
+ * servers losing their connection at once don't all reconnect at the same time.
+ */
+final class Backoff {
+    private static final long BASE_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 30_000;
+
+    private int attempts = 0;
+
+    /**
+     * Gets the delay before the next attempt, and increments the attempt count.
+     *
+     * @return the delay in milliseconds
+     */
+    synchronized long nextDelay() {
+        long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(this.attempts, 16));
+        this.attempts++;
+        return ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+    }
+
+    synchronized int getAttempts() {
+        return this.attempts;
+    }
+
+    synchronized void reset() {
+        this.attempts = 0;
+    }
+}
@@ -27,37 +27,39 @@ package me.lucko.helper.redis.plugin;
 
 import com.google.common.reflect.TypeToken;
 
-import me.lucko.helper.Schedulers;
 import me.lucko.helper.messaging.AbstractMessenger;
 import me.lucko.helper.messaging.Channel;
+import me.lucko.helper.messaging.codec.Codec;
 import me.lucko.helper.redis.Redis;
 import me.lucko.helper.redis.RedisCredentials;
-import me.lucko.helper.terminable.composite.CompositeTerminable;
+import me.lucko.helper.redis.WorkChannel;
 import me.lucko.helper.utils.Log;
 
-import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
-import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnull;
 
 public class HelperRedis implements Redis {
 
     private final JedisPool jedisPool;
+    private final RedisPublisher publisher;
+    private final RedisSubscriber subscriber;
+    private final RedisStreamReader streamReader;
     private final AbstractMessenger messenger;
 
-    private final Set<String> channels = new HashSet<>();
-    private final CompositeTerminable registry = CompositeTerminable.create();
+    private final Set<String> replayChannels = ConcurrentHashMap.newKeySet();
+    private final Map<String, RedisWorkChannel<?>> workChannels = new ConcurrentHashMap<>();
 
-    private PubSubListener listener = null;
+    // identifies this instance within work channel consumer groups
+    private final String consumerId = UUID.randomUUID().toString();
 
     public HelperRedis(@Nonnull RedisCredentials credentials) {
         JedisPoolConfig config = new JedisPoolConfig();
@@ -74,71 +76,31 @@ public class HelperRedis implements Redis {
             jedis.ping();
         }
 
-        Schedulers.async().run(new Runnable() {
-            private boolean broken = false;
-
-            @Override
-            public void run() {
-                if (this.broken) {
-                    Log.info("[helper-redis] Retrying subscription...");
-                    this.broken = false;
-                }
-
-                try (Jedis jedis = getJedis()) {
-                    try {
-                        HelperRedis.this.listener = new PubSubListener();
-                        jedis.subscribe(HelperRedis.this.listener, "helper-redis-dummy".getBytes(StandardCharsets.UTF_8));
-                    } catch (Exception e) {
-                        // Attempt to unsubscribe this instance and try again.
-                        new RuntimeException("Error subscribing to listener", e).printStackTrace();
-                        try {
-                            HelperRedis.this.listener.unsubscribe();
-                        } catch (Exception ignored) {
-
-                        }
-                        HelperRedis.this.listener = null;
-                        this.broken = true;
-                    }
-                }
-
-                if (this.broken) {
-                    // reschedule the runnable
-                    Schedulers.async().runLater(this, 1L);
-                }
-            }
-        });
-
-        Schedulers.async().runRepeating(() -> {
-            // ensure subscribed to all channels
-            PubSubListener listener = HelperRedis.this.listener;
-
-            if (listener == null || !listener.isSubscribed()) {
-                return;
-            }
-
-            for (String channel : this.channels) {
-                listener.subscribe(channel.getBytes(StandardCharsets.UTF_8));
-            }
-
-        }, 2L, 2L).bindWith(this.registry);
-
+        this.publisher = new RedisPublisher(this.jedisPool, this.replayChannels);
+        this.subscriber = new RedisSubscriber(this.jedisPool, this::onIncomingMessage);
+        this.streamReader = new RedisStreamReader(this.jedisPool, this::onIncomingMessage);
         this.messenger = new AbstractMessenger(
-                (channel, message) -> {
-                    try (Jedis jedis = getJedis()) {
-                        jedis.publish(channel.getBytes(StandardCharsets.UTF_8), message);
-                    }
-                },
+                this.publisher::publish,
                 channel -> {
                     Log.info("[helper-redis] Subscribing to channel: " + channel);
-                    this.channels.add(channel);
-                    this.listener.subscribe(channel.getBytes(StandardCharsets.UTF_8));
+                    if (this.replayChannels.contains(channel)) {
+                        this.streamReader.subscribe(channel);
+                    } else {
+                        this.subscriber.subscribe(channel);
+                    }
                 },
                 channel -> {
                     Log.info("[helper-redis] Unsubscribing from channel: " + channel);
-                    this.channels.remove(channel);
-                    this.listener.unsubscribe(channel.getBytes(StandardCharsets.UTF_8));
+                    this.subscriber.unsubscribe(channel);
+                    this.streamReader.unsubscribe(channel);
                 }
         );
+
+        this.subscriber.start();
+    }
+
+    private void onIncomingMessage(String channel, byte[] message) {
+        this.messenger.registerIncomingMessage(channel, message);
     }
 
     @Nonnull
@@ -155,74 +117,56 @@ public class HelperRedis implements Redis {
     }
 
     @Override
-    public void close() throws Exception {
-        if (this.listener != null) {
-            this.listener.unsubscribe();
-            this.listener = null;
+    public void enableReplay(@Nonnull String channel) {
+        Objects.requireNonNull(channel, "channel");
+        if (!this.replayChannels.add(channel)) {
+            return;
         }
 
-        if (this.jedisPool != null) {
-            this.jedisPool.close();
+        // move any existing subscription over to the stream
+        if (this.subscriber.unsubscribe(channel)) {
+            this.streamReader.subscribe(channel);
         }
-
-        this.registry.close();
     }
 
     @Nonnull
+    @SuppressWarnings("unchecked")
     @Override
-    public <T> Channel<T> getChannel(@Nonnull String name, @Nonnull TypeToken<T> type) {
-        return this.messenger.getChannel(name, type);
+    public <T> WorkChannel<T> getWorkChannel(@Nonnull String name, @Nonnull TypeToken<T> type) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(type, "type");
+
+        RedisWorkChannel<?> channel = this.workChannels.computeIfAbsent(name, n -> {
+            // encode messages the same way as the equivalent messenger channel
+            Codec<T> codec = this.messenger.getChannel(n, type).getCodec();
+            return new RedisWorkChannel<>(this.jedisPool, this.consumerId, n, type, codec);
+        });
+        if (!channel.getType().equals(type)) {
+            throw new IllegalArgumentException("Work channel " + name + " already exists with type " + channel.getType());
+        }
+        return (WorkChannel<T>) channel;
     }
 
-    private final class PubSubListener extends BinaryJedisPubSub {
-        private final ReentrantLock lock = new ReentrantLock();
-        private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
-
-        @Override
-        public void subscribe(byte[]... channels) {
-            this.lock.lock();
-            try {
-                for (byte[] channel : channels) {
-                    String channelName = new String(channel, StandardCharsets.UTF_8);
-                    if (this.subscribed.add(channelName)) {
-                        super.subscribe(channel);
-                    }
-                }
-            } finally {
-                this.lock.unlock();
-            }
-        }
+    @Override
+    public void close() throws Exception {
+        // send any messages still waiting to be published
+        this.publisher.close();
 
-        @Override
-        public void unsubscribe(byte[]... channels) {
-            this.lock.lock();
-            try {
-                super.unsubscribe(channels);
-            } finally {
-                this.lock.unlock();
-            }
+        for (RedisWorkChannel<?> channel : this.workChannels.values()) {
+            channel.close();
         }
 
-        @Override
-        public void onSubscribe(byte[] channel, int subscribedChannels) {
-            Log.info("[helper-redis] Subscribed to channel: " + new String(channel, StandardCharsets.UTF_8));
-        }
+        this.subscriber.close();
+        this.streamReader.close();
 
-        @Override
-        public void onUnsubscribe(byte[] channel, int subscribedChannels) {
-            String channelName = new String(channel, StandardCharsets.UTF_8);
-            Log.info("[helper-redis] Unsubscribed from channel: " + channelName);
-            this.subscribed.remove(channelName);
+        if (this.jedisPool != null) {
+            this.jedisPool.close();
         }
+    }
 
-        @Override
-        public void onMessage(byte[] channel, byte[] message) {
-            String channelName = new String(channel, StandardCharsets.UTF_8);
-            try {
-                HelperRedis.this.messenger.registerIncomingMessage(channelName, message);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    @Nonnull
+    @Override
+    public <T> Channel<T> getChannel(@Nonnull String name, @Nonnull TypeToken<T> type) {
+        return this.messenger.getChannel(name, type);
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis.plugin;
+
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.scheduler.HelperExecutors;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.StreamEntryID;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes outgoing messages in batches, using Redis pipelines.
+ *
+ * <p>Messages are queued for up to the flush window, or until a full batch is
+ * waiting, and then sent in a single pipeline. Channels are assigned to a fixed
+ * lane, and each lane sends one pipeline at a time, so messages published to the
+ * same channel are delivered in order.</p>
+ *
+ * <p>Messages sent to replay enabled channels are also appended to the channel's
+ * stream, see {@link RedisStreamReader}.</p>
+ */
+final class RedisPublisher implements AutoCloseable {
+    private static final long FLUSH_WINDOW_MICROS = Long.getLong("helper.redis.publish-window", 1000L);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("helper.redis.publish-batch", 128);
+    private static final int LANES = Math.max(1, Integer.getInteger("helper.redis.publish-lanes", 2));
+
+    private final JedisPool jedisPool;
+    private final Set<String> replayChannels;
+    private final Lane[] lanes = new Lane[LANES];
+    private volatile boolean closed = false;
+
+    RedisPublisher(JedisPool jedisPool, Set<String> replayChannels) {
+        this.jedisPool = jedisPool;
+        this.replayChannels = replayChannels;
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    public void publish(String channel, byte[] message, Promise<Void> result) {
+        if (this.closed) {
+            result.supplyException(new IllegalStateException("Publisher is closed"));
+            return;
+        }
+
+        Lane lane = this.lanes[Math.floorMod(channel.hashCode(), this.lanes.length)];
+        lane.enqueue(new PendingMessage(channel, message, result));
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Lane lane : this.lanes) {
+            lane.flushLock.lock();
+            try {
+                lane.drain();
+            } finally {
+                lane.flushLock.unlock();
+            }
+        }
+    }
+
+    private final class Lane {
+        private final Queue<PendingMessage> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final ReentrantLock flushLock = new ReentrantLock();
+
+        private void enqueue(PendingMessage message) {
+            this.queue.add(message);
+            int size = this.size.incrementAndGet();
+
+            // always make sure a flush is scheduled, as the early flush below is skipped
+            // if another flush is already in progress
+            if (this.scheduled.compareAndSet(false, true)) {
+                HelperExecutors.asyncHelper().schedule(this::scheduledFlush, FLUSH_WINDOW_MICROS, TimeUnit.MICROSECONDS);
+            }
+            if (size == MAX_BATCH_SIZE) {
+                HelperExecutors.asyncHelper().execute(this::flush);
+            }
+        }
+
+        private void scheduledFlush() {
+            this.scheduled.set(false);
+            flush();
+        }
+
+        private void flush() {
+            do {
+                // if a flush is already in progress, it will pick up the queued messages
+                // when it re-checks the queue below
+                if (!this.flushLock.tryLock()) {
+                    return;
+                }
+                try {
+                    drain();
+                } finally {
+                    this.flushLock.unlock();
+                }
+
+                // a message may have been queued after the drain saw an empty queue, whilst
+                // the flush for it failed to acquire the lock
+            } while (!this.queue.isEmpty());
+        }
+
+        private void drain() {
+            List<PendingMessage> batch = new ArrayList<>(Math.min(this.size.get(), MAX_BATCH_SIZE));
+            while (true) {
+                PendingMessage message;
+                while (batch.size() < MAX_BATCH_SIZE && (message = this.queue.poll()) != null) {
+                    this.size.decrementAndGet();
+                    batch.add(message);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+
+                send(batch);
+                batch.clear();
+            }
+        }
+
+        private void send(List<PendingMessage> batch) {
+            try (Jedis jedis = RedisPublisher.this.jedisPool.getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                for (PendingMessage message : batch) {
+                    pipeline.publish(message.channel.getBytes(StandardCharsets.UTF_8), message.message);
+                    if (RedisPublisher.this.replayChannels.contains(message.channel)) {
+                        String encoded = Base64.getEncoder().encodeToString(message.message);
+                        pipeline.xadd(RedisStreamReader.streamKey(message.channel), StreamEntryID.NEW_ENTRY,
+                                Collections.singletonMap(RedisStreamReader.MESSAGE_FIELD, encoded), RedisStreamReader.MAX_LENGTH, true);
+                    }
+                }
+                pipeline.sync();
+            } catch (Exception e) {
+                for (PendingMessage message : batch) {
+                    message.result.supplyException(e);
+                }
+                return;
+            }
+
+            for (PendingMessage message : batch) {
+                message.result.supply(null);
+            }
+        }
+    }
+
+    private static final class PendingMessage {
+        private final String channel;
+        private final byte[] message;
+        private final Promise<Void> result;
+
+        private PendingMessage(String channel, byte[] message, Promise<Void> result) {
+            this.channel = channel;
+            this.message = message;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis.plugin;
+
+import me.lucko.helper.utils.Log;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Receives messages for replay enabled channels from Redis Streams.
+ *
+ * <p>Publishers append messages for these channels to a capped stream, in addition to
+ * publishing them. The reader remembers the id of the last entry it read from each stream,
+ * so after a disconnect, reading resumes from where it left off and messages sent in the
+ * meantime are replayed.</p>
+ *
+ * <p>Reads block while waiting for new entries, so the read loop is run on a dedicated
+ * thread, which exits once there are no channels left to read.</p>
+ */
+final class RedisStreamReader implements AutoCloseable {
+    static final String KEY_PREFIX = "helper-redis:stream:";
+    static final String MESSAGE_FIELD = "m";
+    static final long MAX_LENGTH = Long.getLong("helper.redis.replay-length", 1000L);
+
+    private static final int READ_COUNT = 256;
+    private static final int BLOCK_MILLIS = 1000;
+
+    // a marker for channels whose starting position is yet to be determined
+    private static final StreamEntryID UNRESOLVED = new StreamEntryID(-1, -1);
+
+    private final JedisPool jedisPool;
+    private final BiConsumer<String, byte[]> messageHandler;
+    private final Map<String, StreamEntryID> channels = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Backoff backoff = new Backoff();
+    private volatile boolean closed = false;
+
+    RedisStreamReader(JedisPool jedisPool, BiConsumer<String, byte[]> messageHandler) {
+        this.jedisPool = jedisPool;
+        this.messageHandler = messageHandler;
+    }
+
+    static String streamKey(String channel) {
+        return KEY_PREFIX + channel;
+    }
+
+    void subscribe(String channel) {
+        if (this.channels.putIfAbsent(channel, UNRESOLVED) == null) {
+            ensureRunning();
+        }
+    }
+
+    void unsubscribe(String channel) {
+        this.channels.remove(channel);
+    }
+
+    private void ensureRunning() {
+        if (!this.closed && this.running.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::run, "helper-redis-stream-reader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (!this.closed) {
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                while (!this.closed) {
+                    if (this.channels.isEmpty()) {
+                        this.running.set(false);
+
+                        // a channel may have been added after the check
+                        if (this.channels.isEmpty() || !this.running.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+
+                    read(jedis);
+
+                    if (this.backoff.getAttempts() != 0) {
+                        Log.info("[helper-redis] Stream connection to redis re-established");
+                        this.backoff.reset();
+                    }
+                }
+            } catch (Exception e) {
+                if (this.closed) {
+                    break;
+                }
+
+                long delay = this.backoff.nextDelay();
+                int attempt = this.backoff.getAttempts();
+                if (attempt == 1) {
+                    Log.warn("[helper-redis] Unable to read streams from redis, retrying in " + delay + "ms", e);
+                } else {
+                    Log.warn("[helper-redis] Unable to read streams from redis (attempt " + attempt + "), retrying in " + delay + "ms");
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+        this.running.set(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void read(Jedis jedis) {
+        List<Map.Entry<String, StreamEntryID>> streams = new ArrayList<>(this.channels.size());
+        for (Map.Entry<String, StreamEntryID> channel : this.channels.entrySet()) {
+            StreamEntryID id = channel.getValue();
+            if (id == UNRESOLVED) {
+                // start from the latest entry at the time of subscribing
+                id = resolveLatest(jedis, channel.getKey());
+                this.channels.replace(channel.getKey(), UNRESOLVED, id);
+            }
+            streams.add(new AbstractMap.SimpleImmutableEntry<>(streamKey(channel.getKey()), id));
+        }
+
+        List<Map.Entry<String, List<StreamEntry>>> response = jedis.xread(READ_COUNT, BLOCK_MILLIS, streams.toArray(new Map.Entry[0]));
+        if (response == null) {
+            return;
+        }
+
+        for (Map.Entry<String, List<StreamEntry>> stream : response) {
+            String channel = stream.getKey().substring(KEY_PREFIX.length());
+            for (StreamEntry entry : stream.getValue()) {
+                if (this.channels.computeIfPresent(channel, (k, v) -> entry.getID()) == null) {
+                    break;
+                }
+
+                String message = entry.getFields().get(MESSAGE_FIELD);
+                if (message == null) {
+                    continue;
+                }
+
+                try {
+                    this.messageHandler.accept(channel, Base64.getDecoder().decode(message));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static StreamEntryID resolveLatest(Jedis jedis, String channel) {
+        List<StreamEntry> latest = jedis.xrevrange(streamKey(channel), null, null, 1);
+        if (latest == null || latest.isEmpty()) {
+            // empty stream, read from the start
+            return new StreamEntryID();
+        }
+        return latest.get(0).getID();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+}
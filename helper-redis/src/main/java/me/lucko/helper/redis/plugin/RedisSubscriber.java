@@ -0,0 +1,223 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis.plugin;
+
+import me.lucko.helper.utils.Log;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Maintains a pub/sub subscription to a set of channels, reconnecting with
+ * backoff if the connection is lost.
+ *
+ * <p>The set of channels is tracked here, and re-subscribed to once each time a
+ * connection is established.</p>
+ *
+ * <p>The subscription blocks for as long as it is connected, so it is run on a
+ * dedicated thread rather than occupying a worker of the shared async pool.</p>
+ */
+final class RedisSubscriber implements AutoCloseable {
+    private static final byte[] DUMMY_CHANNEL = "helper-redis-dummy".getBytes(StandardCharsets.UTF_8);
+
+    private final JedisPool jedisPool;
+    private final BiConsumer<String, byte[]> messageHandler;
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final Backoff backoff = new Backoff();
+
+    private volatile PubSubListener listener = null;
+    private volatile Thread thread = null;
+    private volatile boolean closed = false;
+
+    RedisSubscriber(JedisPool jedisPool, BiConsumer<String, byte[]> messageHandler) {
+        this.jedisPool = jedisPool;
+        this.messageHandler = messageHandler;
+    }
+
+    void start() {
+        Thread thread = new Thread(this::run, "helper-redis-subscriber");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    void subscribe(String channel) {
+        if (!this.channels.add(channel)) {
+            return;
+        }
+
+        // if not connected, the channel will be subscribed to once the connection is established
+        PubSubListener listener = this.listener;
+        if (listener != null && listener.connected) {
+            listener.subscribe(channel.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    boolean unsubscribe(String channel) {
+        if (!this.channels.remove(channel)) {
+            return false;
+        }
+
+        PubSubListener listener = this.listener;
+        if (listener != null && listener.connected) {
+            listener.unsubscribe(channel.getBytes(StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    private void run() {
+        while (!this.closed) {
+            Exception failure = connect();
+            if (this.closed) {
+                return;
+            }
+
+            long delay = this.backoff.nextDelay();
+            int attempt = this.backoff.getAttempts();
+            if (attempt == 1) {
+                // only log the full error for the first failure, to avoid spamming the console
+                Log.warn("[helper-redis] Redis subscription failed, retrying in " + delay + "ms", failure);
+            } else {
+                Log.warn("[helper-redis] Unable to subscribe to redis (attempt " + attempt + "), retrying in " + delay + "ms");
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private Exception connect() {
+        PubSubListener listener = new PubSubListener();
+        this.listener = listener;
+
+        Exception failure = null;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // blocks until the subscription ends
+            jedis.subscribe(listener, DUMMY_CHANNEL);
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        listener.connected = false;
+        this.listener = null;
+        return failure;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        PubSubListener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.unsubscribe();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+
+        // wake the thread if it is waiting to reconnect
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private final class PubSubListener extends BinaryJedisPubSub {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+        private volatile boolean connected = false;
+
+        @Override
+        public void subscribe(byte[]... channels) {
+            this.lock.lock();
+            try {
+                for (byte[] channel : channels) {
+                    String channelName = new String(channel, StandardCharsets.UTF_8);
+                    if (this.subscribed.add(channelName)) {
+                        super.subscribe(channel);
+                    }
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void unsubscribe(byte[]... channels) {
+            this.lock.lock();
+            try {
+                super.unsubscribe(channels);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void onSubscribe(byte[] channel, int subscribedChannels) {
+            if (!this.connected && Arrays.equals(channel, DUMMY_CHANNEL)) {
+                this.connected = true;
+                if (RedisSubscriber.this.backoff.getAttempts() != 0) {
+                    Log.info("[helper-redis] Subscription to redis re-established");
+                    RedisSubscriber.this.backoff.reset();
+                }
+
+                for (String name : RedisSubscriber.this.channels) {
+                    subscribe(name.getBytes(StandardCharsets.UTF_8));
+                }
+                return;
+            }
+            Log.info("[helper-redis] Subscribed to channel: " + new String(channel, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+            String channelName = new String(channel, StandardCharsets.UTF_8);
+            Log.info("[helper-redis] Unsubscribed from channel: " + channelName);
+            this.subscribed.remove(channelName);
+        }
+
+        @Override
+        public void onMessage(byte[] channel, byte[] message) {
+            String channelName = new String(channel, StandardCharsets.UTF_8);
+            try {
+                RedisSubscriber.this.messageHandler.accept(channelName, message);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
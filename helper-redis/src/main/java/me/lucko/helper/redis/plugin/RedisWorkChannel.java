@@ -0,0 +1,373 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.redis.plugin;
+
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.messaging.codec.Codec;
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.redis.WorkChannel;
+import me.lucko.helper.redis.WorkHandler;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.utils.Log;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.StreamConsumersInfo;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.StreamPendingEntry;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Implementation of {@link WorkChannel} using a Redis Stream and consumer group.
+ *
+ * <p>Handled messages are acknowledged and deleted from the stream, so the stream only
+ * contains messages which are yet to be handled. Messages which have been pending for
+ * longer than the claim timeout are claimed by another consumer and retried. Once a
+ * message has been delivered the maximum number of times, it is moved to a separate
+ * dead letter stream.</p>
+ *
+ * <p>Consumers which have been idle for longer than the consumer expiry and have no pending
+ * messages are removed from the group, as is this instance's consumer when the channel is
+ * closed, so the group doesn't accumulate consumers left behind by previous runs.</p>
+ */
+final class RedisWorkChannel<T> implements WorkChannel<T> {
+    private static final String KEY_PREFIX = "helper-redis:work:";
+    private static final String DEAD_LETTER_SUFFIX = ":dead";
+    private static final String GROUP = "helper";
+    private static final String MESSAGE_FIELD = "m";
+
+    private static final long CLAIM_IDLE_MILLIS = Long.getLong("helper.redis.work-claim-idle", 30_000L);
+    private static final int MAX_DELIVERIES = Integer.getInteger("helper.redis.work-max-deliveries", 5);
+    private static final int MAX_IN_FLIGHT = 16;
+    private static final int BLOCK_MILLIS = 1000;
+    private static final long RECLAIM_INTERVAL_MILLIS = 5000;
+    private static final int PENDING_PAGE_SIZE = 256;
+    private static final long CONSUMER_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final JedisPool jedisPool;
+    private final String consumer;
+    private final String name;
+    private final TypeToken<T> type;
+    private final Codec<T> codec;
+    private final String key;
+
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Backoff backoff = new Backoff();
+
+    private WorkHandler<T> handler = null;
+    private boolean running = false;
+    private volatile boolean closed = false;
+
+    RedisWorkChannel(JedisPool jedisPool, String consumer, String name, TypeToken<T> type, Codec<T> codec) {
+        this.jedisPool = jedisPool;
+        this.consumer = consumer;
+        this.name = name;
+        this.type = type;
+        this.codec = codec;
+        this.key = KEY_PREFIX + name;
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Nonnull
+    @Override
+    public TypeToken<T> getType() {
+        return this.type;
+    }
+
+    @Nonnull
+    @Override
+    public Codec<T> getCodec() {
+        return this.codec;
+    }
+
+    @Nonnull
+    @Override
+    public Promise<Void> submit(@Nonnull T message) {
+        Objects.requireNonNull(message, "message");
+        return Schedulers.async().call(() -> {
+            String encoded = Base64.getEncoder().encodeToString(this.codec.encode(message));
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                jedis.xadd(this.key, StreamEntryID.NEW_ENTRY, Collections.singletonMap(MESSAGE_FIELD, encoded));
+            }
+            return null;
+        });
+    }
+
+    @Nonnull
+    @Override
+    public synchronized Terminable consume(@Nonnull WorkHandler<T> handler) {
+        Objects.requireNonNull(handler, "handler");
+        if (this.closed) {
+            throw new IllegalStateException("Channel is closed");
+        }
+        if (this.handler != null) {
+            throw new IllegalStateException("A handler is already registered for channel " + this.name);
+        }
+
+        this.handler = handler;
+        if (!this.running) {
+            this.running = true;
+
+            // reads block while waiting for messages, so run on a dedicated thread
+            Thread thread = new Thread(this::run, "helper-redis-work-" + this.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return () -> {
+            synchronized (this) {
+                if (this.handler == handler) {
+                    this.handler = null;
+                }
+            }
+        };
+    }
+
+    private synchronized WorkHandler<T> currentHandler() {
+        WorkHandler<T> handler = this.closed ? null : this.handler;
+        if (handler == null) {
+            this.running = false;
+        }
+        return handler;
+    }
+
+    void close() {
+        this.closed = true;
+
+        // remove this consumer from the group, unless it still has messages pending,
+        // in which case it is left for other consumers to reclaim from and remove
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            List<StreamPendingEntry> pending = jedis.xpending(this.key, GROUP, null, null, 1, this.consumer);
+            if (pending == null || pending.isEmpty()) {
+                jedis.xgroupDelConsumer(this.key, GROUP, this.consumer);
+            }
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                createGroup(jedis);
+
+                long nextReclaim = 0;
+                WorkHandler<T> handler;
+                while ((handler = currentHandler()) != null) {
+                    long now = System.currentTimeMillis();
+                    if (now >= nextReclaim) {
+                        reclaim(jedis, handler);
+                        removeExpiredConsumers(jedis);
+                        nextReclaim = now + RECLAIM_INTERVAL_MILLIS;
+                    }
+
+                    // read as many messages as there are free handling slots
+                    this.inFlight.acquire();
+                    int permits = 1 + this.inFlight.drainPermits();
+                    int dispatched = 0;
+                    try {
+                        List<Map.Entry<String, List<StreamEntry>>> response = readGroup(jedis, permits);
+                        if (response != null) {
+                            for (Map.Entry<String, List<StreamEntry>> stream : response) {
+                                for (StreamEntry entry : stream.getValue()) {
+                                    dispatch(handler, entry);
+                                    dispatched++;
+                                }
+                            }
+                        }
+                    } finally {
+                        this.inFlight.release(permits - dispatched);
+                    }
+
+                    if (this.backoff.getAttempts() != 0) {
+                        Log.info("[helper-redis] Work channel " + this.name + " reconnected");
+                        this.backoff.reset();
+                    }
+                }
+                return;
+            } catch (Exception e) {
+                if (currentHandler() == null) {
+                    return;
+                }
+
+                long delay = this.backoff.nextDelay();
+                int attempt = this.backoff.getAttempts();
+                if (attempt == 1) {
+                    Log.warn("[helper-redis] Unable to read work channel " + this.name + ", retrying in " + delay + "ms", e);
+                } else {
+                    Log.warn("[helper-redis] Unable to read work channel " + this.name + " (attempt " + attempt + "), retrying in " + delay + "ms");
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    synchronized (this) {
+                        this.running = false;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void createGroup(Jedis jedis) {
+        try {
+            // start from the beginning of the stream, so messages submitted before the group existed are handled
+            jedis.xgroupCreate(this.key, GROUP, new StreamEntryID(), true);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map.Entry<String, List<StreamEntry>>> readGroup(Jedis jedis, int count) {
+        Map.Entry<String, StreamEntryID> stream = new AbstractMap.SimpleImmutableEntry<>(this.key, StreamEntryID.UNRECEIVED_ENTRY);
+        return jedis.xreadGroup(GROUP, this.consumer, count, BLOCK_MILLIS, false, stream);
+    }
+
+    private void reclaim(Jedis jedis, WorkHandler<T> handler) {
+        // walk the whole pending list a page at a time, so large backlogs are handled in one pass
+        int capacity = this.inFlight.availablePermits();
+        List<StreamEntryID> claim = new ArrayList<>();
+        StreamEntryID start = null;
+        while (true) {
+            List<StreamPendingEntry> pending = jedis.xpending(this.key, GROUP, start, null, PENDING_PAGE_SIZE, null);
+            if (pending == null || pending.isEmpty()) {
+                break;
+            }
+
+            for (StreamPendingEntry entry : pending) {
+                if (entry.getIdleTime() < CLAIM_IDLE_MILLIS) {
+                    continue;
+                }
+
+                if (entry.getDeliveredTimes() >= MAX_DELIVERIES) {
+                    deadLetter(jedis, entry);
+                } else if (claim.size() < capacity) {
+                    // only claim as many as can be handled now, the rest are left for later passes
+                    claim.add(entry.getID());
+                }
+            }
+
+            if (pending.size() < PENDING_PAGE_SIZE) {
+                break;
+            }
+            StreamEntryID last = pending.get(pending.size() - 1).getID();
+            start = new StreamEntryID(last.getTime(), last.getSequence() + 1);
+        }
+
+        if (claim.isEmpty()) {
+            return;
+        }
+
+        List<StreamEntry> claimed = jedis.xclaim(this.key, GROUP, this.consumer, CLAIM_IDLE_MILLIS, 0, 0, false, claim.toArray(new StreamEntryID[0]));
+        for (StreamEntry entry : claimed) {
+            // if there's no capacity, leave the entry to be claimed again later
+            if (this.inFlight.tryAcquire()) {
+                dispatch(handler, entry);
+            }
+        }
+    }
+
+    private void removeExpiredConsumers(Jedis jedis) {
+        for (StreamConsumersInfo info : jedis.xinfoConsumers(this.key, GROUP)) {
+            if (info.getName().equals(this.consumer) || info.getPending() != 0 || info.getIdle() < CONSUMER_EXPIRY_MILLIS) {
+                continue;
+            }
+            jedis.xgroupDelConsumer(this.key, GROUP, info.getName());
+        }
+    }
+
+    private void deadLetter(Jedis jedis, StreamPendingEntry pending) {
+        List<StreamEntry> entries = jedis.xrange(this.key, pending.getID(), pending.getID(), 1);
+
+        Pipeline pipeline = jedis.pipelined();
+        for (StreamEntry entry : entries) {
+            pipeline.xadd(this.key + DEAD_LETTER_SUFFIX, StreamEntryID.NEW_ENTRY, entry.getFields());
+        }
+        pipeline.xack(this.key, GROUP, pending.getID());
+        pipeline.xdel(this.key, pending.getID());
+        pipeline.sync();
+
+        Log.warn("[helper-redis] Work message " + pending.getID() + " on channel " + this.name + " failed after " +
+                pending.getDeliveredTimes() + " deliveries, moved to " + this.key + DEAD_LETTER_SUFFIX);
+    }
+
+    /**
+     * Handles an entry asynchronously. The caller must have acquired an in flight permit.
+     */
+    private void dispatch(WorkHandler<T> handler, StreamEntry entry) {
+        Schedulers.async().run(() -> {
+            try {
+                String encoded = entry.getFields().get(MESSAGE_FIELD);
+                if (encoded == null) {
+                    throw new IllegalStateException("Missing message field");
+                }
+
+                T message = this.codec.decode(Base64.getDecoder().decode(encoded));
+                handler.handle(this, message);
+                acknowledge(entry.getID());
+            } catch (Exception e) {
+                // left pending, to be reclaimed and retried
+                new RuntimeException("Unable to handle work message " + entry.getID() + " on channel " + this.name, e).printStackTrace();
+            } finally {
+                this.inFlight.release();
+            }
+        });
+    }
+
+    private void acknowledge(StreamEntryID id) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.xack(this.key, GROUP, id);
+            pipeline.xdel(this.key, id);
+            pipeline.sync();
+        }
+    }
+}
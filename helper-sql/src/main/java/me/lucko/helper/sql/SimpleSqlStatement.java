@@ -0,0 +1,108 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.sql;
+
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.promise.Promise;
+
+import be.bendem.sqlstreams.util.SqlConsumer;
+import be.bendem.sqlstreams.util.SqlFunction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link SqlStatement} which executes each operation independently on the async
+ * scheduler, using a connection from the owning {@link Sql}.
+ *
+ * <p>This is the default returned by {@link Sql#prepare(String)}. Operations are not
+ * pipelined or batched, and may complete in any order.</p>
+ */
+final class SimpleSqlStatement implements SqlStatement {
+
+    @Nonnull private final Sql sql;
+    @Nonnull private final String statement;
+
+    SimpleSqlStatement(@Nonnull Sql sql, @Nonnull String statement) {
+        this.sql = sql;
+        this.statement = statement;
+    }
+
+    @Nonnull
+    @Override
+    public String getStatement() {
+        return this.statement;
+    }
+
+    @Nonnull
+    @Override
+    public Promise<Void> executeAsync(@Nonnull SqlConsumer<PreparedStatement> preparer) {
+        Objects.requireNonNull(preparer, "preparer");
+        return Schedulers.async().call(() -> {
+            try (Connection c = this.sql.getConnection(); PreparedStatement s = c.prepareStatement(this.statement)) {
+                preparer.accept(s);
+                s.execute();
+            }
+            return null;
+        });
+    }
+
+    @Nonnull
+    @Override
+    public Promise<Integer> updateAsync(@Nonnull SqlConsumer<PreparedStatement> preparer) {
+        Objects.requireNonNull(preparer, "preparer");
+        return Schedulers.async().call(() -> {
+            try (Connection c = this.sql.getConnection(); PreparedStatement s = c.prepareStatement(this.statement)) {
+                preparer.accept(s);
+                return s.executeUpdate();
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public <R> Promise<R> queryAsync(@Nonnull SqlConsumer<PreparedStatement> preparer, @Nonnull SqlFunction<ResultSet, R> handler) {
+        Objects.requireNonNull(preparer, "preparer");
+        Objects.requireNonNull(handler, "handler");
+        return Schedulers.async().call(() -> {
+            try (Connection c = this.sql.getConnection(); PreparedStatement s = c.prepareStatement(this.statement)) {
+                preparer.accept(s);
+                try (ResultSet r = s.executeQuery()) {
+                    return handler.apply(r);
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStatement(" + this.statement + ")";
+    }
+}
@@ -42,6 +42,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Objects;
 import java.util.Optional;
 
 import javax.annotation.Nonnull;
@@ -244,4 +245,22 @@ public interface Sql extends Terminable {
      * @return a BatchBuilder
      */
     BatchBuilder batch(@Language("MySQL") @Nonnull String statement);
+
+    /**
+     * Gets a reusable {@link SqlStatement} handle for the provided statement.
+     *
+     * <p>Handles should be obtained once per query shape and reused, rather than
+     * being obtained for every execution.</p>
+     *
+     * <p>The default implementation executes each operation independently on an
+     * asynchronous thread, without pipelining or batching writes.</p>
+     *
+     * @param statement the statement
+     * @return a statement handle
+     */
+    @Nonnull
+    default SqlStatement prepare(@Language("MySQL") @Nonnull String statement) {
+        Objects.requireNonNull(statement, "statement");
+        return new SimpleSqlStatement(this, statement);
+    }
 }
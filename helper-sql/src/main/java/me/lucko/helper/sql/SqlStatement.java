@@ -0,0 +1,111 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.sql;
+
+import me.lucko.helper.promise.Promise;
+
+import be.bendem.sqlstreams.util.SqlConsumer;
+import be.bendem.sqlstreams.util.SqlFunction;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A handle for a single statement, executed by the {@link Sql}'s statement pipeline.
+ *
+ * <p>Handles are obtained once per query shape using {@link Sql#prepare(String)}, and
+ * can then be reused for any number of executions.</p>
+ *
+ * <p>All executions are performed asynchronously. Writes made using
+ * {@link #executeAsync(SqlConsumer)} and updates made using {@link #updateAsync(SqlConsumer)}
+ * may be pipelined by the implementation: executed in the order they were submitted, with
+ * consecutive writes to the same handle grouped into a single JDBC batch. Queries are
+ * executed independently, and are not ordered relative to writes, so wait for a write's
+ * promise before reading its result.</p>
+ *
+ * <p>Unlike the methods in {@link Sql}, any exception thrown during execution is
+ * used to complete the returned {@link Promise}.</p>
+ */
+public interface SqlStatement {
+
+    /**
+     * Gets the statement executed by this handle.
+     *
+     * @return the statement
+     */
+    @Nonnull
+    String getStatement();
+
+    /**
+     * Executes this statement as a write.
+     *
+     * <p>Consecutive writes are grouped into a batch, so the update count of the
+     * individual execution is not available. Use {@link #updateAsync(SqlConsumer)}
+     * if it is required.</p>
+     *
+     * @param preparer the preparation used for this execution
+     * @return a Promise which completes once the write has been executed
+     */
+    @Nonnull
+    Promise<Void> executeAsync(@Nonnull SqlConsumer<PreparedStatement> preparer);
+
+    /**
+     * Executes this statement as an update, and returns the update count.
+     *
+     * <p>Updates are never batched, but may be pipelined in order with writes.</p>
+     *
+     * @param preparer the preparation used for this execution
+     * @return a Promise of the update count
+     */
+    @Nonnull
+    Promise<Integer> updateAsync(@Nonnull SqlConsumer<PreparedStatement> preparer);
+
+    /**
+     * Executes this statement as a query.
+     *
+     * @param preparer the preparation used for this execution
+     * @param handler the handler for the data returned by the query
+     * @param <R> the returned type
+     * @return a Promise of the value returned by the handler
+     */
+    @Nonnull
+    <R> Promise<R> queryAsync(@Nonnull SqlConsumer<PreparedStatement> preparer, @Nonnull SqlFunction<ResultSet, R> handler);
+
+    /**
+     * Executes this statement as a query with no preparation.
+     *
+     * @param handler the handler for the data returned by the query
+     * @param <R> the returned type
+     * @return a Promise of the value returned by the handler
+     */
+    @Nonnull
+    default <R> Promise<R> queryAsync(@Nonnull SqlFunction<ResultSet, R> handler) {
+        return queryAsync(stmt -> {}, handler);
+    }
+
+}
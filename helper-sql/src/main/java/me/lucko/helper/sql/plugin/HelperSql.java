@@ -29,8 +29,10 @@ import com.google.common.collect.ImmutableMap;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import me.lucko.helper.promise.Promise;
 import me.lucko.helper.sql.DatabaseCredentials;
 import me.lucko.helper.sql.Sql;
+import me.lucko.helper.sql.SqlStatement;
 import me.lucko.helper.sql.batch.BatchBuilder;
 
 import org.intellij.lang.annotations.Language;
@@ -65,11 +67,13 @@ public class HelperSql implements Sql {
 
     private final HikariDataSource source;
     private final SqlStream stream;
+    private final HelperSqlPipeline pipeline;
 
     public HelperSql(@Nonnull DatabaseCredentials credentials) {
         final HikariConfig hikari = new HikariConfig();
 
-        hikari.setPoolName("helper-sql-" + POOL_COUNTER.getAndIncrement());
+        final String poolName = "helper-sql-" + POOL_COUNTER.getAndIncrement();
+        hikari.setPoolName(poolName);
 
         hikari.setDriverClassName("com.mysql.cj.jdbc.Driver");
         hikari.setJdbcUrl("jdbc:mysql://" + credentials.getAddress() + ":" + credentials.getPort() + "/" + credentials.getDatabase());
@@ -114,6 +118,7 @@ public class HelperSql implements Sql {
 
         this.source = new HikariDataSource(hikari);
         this.stream = SqlStream.connect(this.source);
+        this.pipeline = new HelperSqlPipeline(this, poolName);
     }
 
     @Nonnull
@@ -144,6 +149,13 @@ public class HelperSql implements Sql {
         }
     }
 
+    @Nonnull
+    @Override
+    public Promise<Void> executeAsync(@Language("MySQL") @Nonnull String statement, @Nonnull SqlConsumer<PreparedStatement> preparer) {
+        // queue the write on the pipeline, so that it can be grouped with others
+        return this.pipeline.write(statement, preparer, true);
+    }
+
     @Override
     public <R> Optional<R> query(@Language("MySQL") @Nonnull String query, @Nonnull SqlConsumer<PreparedStatement> preparer, @Nonnull SqlFunction<ResultSet, R> handler) {
         try (Connection c = this.getConnection(); PreparedStatement s = c.prepareStatement(query)) {
@@ -184,8 +196,16 @@ public class HelperSql implements Sql {
         return new HelperSqlBatchBuilder(this, statement);
     }
 
+    @Nonnull
+    @Override
+    public SqlStatement prepare(@Language("MySQL") @Nonnull String statement) {
+        // writes are pipelined, everything else is executed directly
+        return new HelperSqlStatement(this.pipeline, Sql.super.prepare(statement));
+    }
+
     @Override
     public void close() {
+        this.pipeline.close();
         this.source.close();
     }
 }
@@ -0,0 +1,387 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.sql.plugin;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import me.lucko.helper.promise.Promise;
+
+import be.bendem.sqlstreams.util.SqlConsumer;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes writes and updates submitted via {@link HelperSqlStatement}s and
+ * {@link HelperSql#executeAsync(String, SqlConsumer)} on a single thread, in the
+ * order they were submitted.
+ *
+ * <p>Queued writes are drained in groups of up to {@link #MAX_BATCH_SIZE}. Each
+ * group is executed using a single connection, preparing each distinct statement
+ * at most once. Consecutive writes to the same statement are sent as one batch.
+ * Updates are always executed on their own, so their update count is known.</p>
+ *
+ * <p>A write which fails only fails its own promise. If a batch fails, the writes
+ * the driver reports as executed are completed, and any it didn't attempt are
+ * retried individually.</p>
+ *
+ * <p>Queries are not pipelined, so that they can run in parallel on the async pool.</p>
+ *
+ * <p>The behaviour can be tuned using the following system properties:</p>
+ * <ul>
+ *     <li><code>helper.sql.pipeline-batch-size</code> - the maximum number of writes drained using one connection</li>
+ *     <li><code>helper.sql.pipeline-shutdown-timeout</code> - the time in milliseconds to wait for queued writes on close</li>
+ * </ul>
+ */
+final class HelperSqlPipeline implements AutoCloseable {
+    private static final int MAX_BATCH_SIZE = Math.max(1, Integer.getInteger("helper.sql.pipeline-batch-size", 512));
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = Long.getLong("helper.sql.pipeline-shutdown-timeout", 10_000L);
+
+    private final HelperSql sql;
+    private final ExecutorService executor;
+    private final Queue<Write> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    HelperSqlPipeline(HelperSql sql, String name) {
+        this.sql = sql;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(name + "-pipeline")
+                .build()
+        );
+    }
+
+    Promise<Void> write(String statement, SqlConsumer<PreparedStatement> preparer, boolean lenient) {
+        Promise<Void> promise = Promise.empty();
+        submit(new Execute(statement, preparer, promise, lenient));
+        return promise;
+    }
+
+    Promise<Integer> update(String statement, SqlConsumer<PreparedStatement> preparer) {
+        Promise<Integer> promise = Promise.empty();
+        submit(new Update(statement, preparer, promise));
+        return promise;
+    }
+
+    private void submit(Write write) {
+        if (this.closed) {
+            write.fail(new IllegalStateException("Sql pipeline is closed"));
+            return;
+        }
+
+        this.queue.add(write);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                failQueued(new IllegalStateException("Sql pipeline is closed"));
+            }
+        }
+    }
+
+    private void drain() {
+        boolean finished = false;
+        try {
+            List<Write> writes = new ArrayList<>(Math.min(MAX_BATCH_SIZE, 64));
+            while (true) {
+                Write write;
+                while (writes.size() < MAX_BATCH_SIZE && (write = this.queue.poll()) != null) {
+                    writes.add(write);
+                }
+
+                if (writes.isEmpty()) {
+                    this.scheduled.set(false);
+
+                    // a write may have been queued after the last poll, but before
+                    // the flag was cleared
+                    if (this.queue.isEmpty() || !this.scheduled.compareAndSet(false, true)) {
+                        finished = true;
+                        return;
+                    }
+                    continue;
+                }
+
+                process(writes);
+                writes.clear();
+            }
+        } finally {
+            if (!finished) {
+                // failed unexpectedly, so make sure the remaining writes aren't left waiting
+                this.scheduled.set(false);
+                if (!this.queue.isEmpty()) {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    private void process(List<Write> writes) {
+        int index = 0;
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        try (Connection c = this.sql.getConnection()) {
+            try {
+                while (index < writes.size()) {
+                    Write first = writes.get(index);
+                    int end = index + 1;
+                    if (first.isBatchable()) {
+                        while (end < writes.size() && writes.get(end).isBatchable() && writes.get(end).statement.equals(first.statement)) {
+                            end++;
+                        }
+                    }
+
+                    List<Write> group = writes.subList(index, end);
+                    index = end;
+
+                    PreparedStatement s;
+                    try {
+                        s = statements.get(first.statement);
+                        if (s == null) {
+                            s = c.prepareStatement(first.statement);
+                            statements.put(first.statement, s);
+                        }
+                    } catch (Throwable t) {
+                        for (Write write : group) {
+                            write.fail(t);
+                        }
+                        continue;
+                    }
+
+                    if (group.size() == 1) {
+                        executeSingle(s, first);
+                    } else {
+                        executeBatch(s, group);
+                    }
+                }
+            } finally {
+                for (PreparedStatement s : statements.values()) {
+                    try {
+                        s.close();
+                    } catch (SQLException e) {
+                        // ignore
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            // the connection could not be obtained, or failed to close
+            for (Write write : writes.subList(index, writes.size())) {
+                write.fail(t);
+            }
+        }
+    }
+
+    private static void executeSingle(PreparedStatement s, Write write) {
+        int updateCount;
+        try {
+            s.clearParameters();
+            write.preparer.accept(s);
+            s.execute();
+            updateCount = s.getUpdateCount();
+        } catch (Throwable t) {
+            write.fail(t);
+            return;
+        }
+        write.complete(updateCount);
+    }
+
+    private static void executeBatch(PreparedStatement s, List<Write> group) {
+        // writes whose preparer throws are failed on their own, and left out of the batch
+        List<Write> batch = new ArrayList<>(group.size());
+        for (Write write : group) {
+            try {
+                s.clearParameters();
+                write.preparer.accept(s);
+                s.addBatch();
+                batch.add(write);
+            } catch (Throwable t) {
+                write.fail(t);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int[] counts;
+        try {
+            counts = s.executeBatch();
+        } catch (BatchUpdateException e) {
+            handleBatchFailure(s, batch, e);
+            return;
+        } catch (Throwable t) {
+            // nothing is known about which writes were executed
+            for (Write write : batch) {
+                write.fail(t);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO);
+        }
+    }
+
+    private static void handleBatchFailure(PreparedStatement s, List<Write> batch, BatchUpdateException e) {
+        int[] counts = e.getUpdateCounts();
+        if (counts == null) {
+            counts = new int[0];
+        }
+
+        // drivers either report a count for every write, or stop at the first failure
+        for (int i = 0; i < batch.size(); i++) {
+            Write write = batch.get(i);
+            if (i < counts.length) {
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    write.fail(e);
+                } else {
+                    write.complete(counts[i]);
+                }
+            } else if (i == counts.length) {
+                // the write which stopped the batch
+                write.fail(e);
+            } else {
+                // never attempted, so retry on its own
+                executeSingle(s, write);
+            }
+        }
+    }
+
+    private void failQueued(Throwable t) {
+        Write write;
+        while ((write = this.queue.poll()) != null) {
+            write.fail(t);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued(new IllegalStateException("Sql pipeline is closed"));
+    }
+
+    private abstract static class Write {
+        final String statement;
+        final SqlConsumer<PreparedStatement> preparer;
+
+        Write(String statement, SqlConsumer<PreparedStatement> preparer) {
+            this.statement = statement;
+            this.preparer = preparer;
+        }
+
+        /**
+         * Gets if the write can be grouped into a batch with others.
+         *
+         * @return if the write can be batched
+         */
+        abstract boolean isBatchable();
+
+        abstract void complete(int updateCount);
+
+        abstract void fail(Throwable t);
+    }
+
+    private static final class Execute extends Write {
+        private final Promise<Void> promise;
+        private final boolean lenient;
+
+        Execute(String statement, SqlConsumer<PreparedStatement> preparer, Promise<Void> promise, boolean lenient) {
+            super(statement, preparer);
+            this.promise = promise;
+            this.lenient = lenient;
+        }
+
+        @Override
+        boolean isBatchable() {
+            return true;
+        }
+
+        @Override
+        void complete(int updateCount) {
+            this.promise.supply(null);
+        }
+
+        @Override
+        void fail(Throwable t) {
+            if (this.lenient) {
+                // matches the behaviour of Sql#execute
+                t.printStackTrace();
+                this.promise.supply(null);
+            } else {
+                this.promise.supplyException(t);
+            }
+        }
+    }
+
+    private static final class Update extends Write {
+        private final Promise<Integer> promise;
+
+        Update(String statement, SqlConsumer<PreparedStatement> preparer, Promise<Integer> promise) {
+            super(statement, preparer);
+            this.promise = promise;
+        }
+
+        @Override
+        boolean isBatchable() {
+            // executed on its own, so the update count is that of this execution alone
+            return false;
+        }
+
+        @Override
+        void complete(int updateCount) {
+            this.promise.supply(updateCount);
+        }
+
+        @Override
+        void fail(Throwable t) {
+            this.promise.supplyException(t);
+        }
+    }
+}
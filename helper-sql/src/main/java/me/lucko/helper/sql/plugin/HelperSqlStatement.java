@@ -0,0 +1,84 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.sql.plugin;
+
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.sql.SqlStatement;
+
+import be.bendem.sqlstreams.util.SqlConsumer;
+import be.bendem.sqlstreams.util.SqlFunction;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link SqlStatement} which queues writes and updates on the {@link HelperSqlPipeline},
+ * and executes queries directly on the async pool.
+ */
+final class HelperSqlStatement implements SqlStatement {
+
+    @Nonnull private final HelperSqlPipeline pipeline;
+    @Nonnull private final SqlStatement direct;
+
+    HelperSqlStatement(@Nonnull HelperSqlPipeline pipeline, @Nonnull SqlStatement direct) {
+        this.pipeline = pipeline;
+        this.direct = direct;
+    }
+
+    @Nonnull
+    @Override
+    public String getStatement() {
+        return this.direct.getStatement();
+    }
+
+    @Nonnull
+    @Override
+    public Promise<Void> executeAsync(@Nonnull SqlConsumer<PreparedStatement> preparer) {
+        Objects.requireNonNull(preparer, "preparer");
+        return this.pipeline.write(getStatement(), preparer, false);
+    }
+
+    @Nonnull
+    @Override
+    public Promise<Integer> updateAsync(@Nonnull SqlConsumer<PreparedStatement> preparer) {
+        Objects.requireNonNull(preparer, "preparer");
+        return this.pipeline.update(getStatement(), preparer);
+    }
+
+    @Nonnull
+    @Override
+    public <R> Promise<R> queryAsync(@Nonnull SqlConsumer<PreparedStatement> preparer, @Nonnull SqlFunction<ResultSet, R> handler) {
+        return this.direct.queryAsync(preparer, handler);
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStatement(" + getStatement() + ")";
+    }
+}
@@ -25,12 +25,10 @@
 
 package me.lucko.helper.sql.util;
 
-import me.lucko.helper.Schedulers;
 import me.lucko.helper.promise.Promise;
 import me.lucko.helper.sql.Sql;
 
 import java.math.BigDecimal;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -134,19 +132,7 @@ public class Uuid2PosDecimalTable extends Uuid2PosNumberTable<BigDecimal, Option
      * @return the total
      */
     public Promise<BigDecimal> total() {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(SELECT_TOTAL.replace("{table}", table))) {
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            return rs.getBigDecimal("total");
-                        } else {
-                            return BigDecimal.ZERO;
-                        }
-                    }
-                }
-            }
-        });
+        return this.selectTotal.queryAsync(rs -> rs.next() ? rs.getBigDecimal("total") : BigDecimal.ZERO);
     }
 
 }
\ No newline at end of file
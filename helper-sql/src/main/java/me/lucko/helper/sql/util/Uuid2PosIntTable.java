@@ -25,11 +25,9 @@
 
 package me.lucko.helper.sql.util;
 
-import me.lucko.helper.Schedulers;
 import me.lucko.helper.promise.Promise;
 import me.lucko.helper.sql.Sql;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -133,18 +131,6 @@ public class Uuid2PosIntTable extends Uuid2PosNumberTable<Integer, OptionalInt>
      * @return the total
      */
     public Promise<Long> total() {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(SELECT_TOTAL.replace("{table}", table))) {
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            return rs.getLong("total");
-                        } else {
-                            return 0L;
-                        }
-                    }
-                }
-            }
-        });
+        return this.selectTotal.queryAsync(rs -> rs.next() ? rs.getLong("total") : 0L);
     }
 }
\ No newline at end of file
@@ -27,9 +27,9 @@ package me.lucko.helper.sql.util;
 
 import com.google.common.collect.Maps;
 
-import me.lucko.helper.Schedulers;
 import me.lucko.helper.promise.Promise;
 import me.lucko.helper.sql.Sql;
+import me.lucko.helper.sql.SqlStatement;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -54,9 +54,26 @@ public abstract class Uuid2PosNumberTable<T, O> {
     protected final Sql sql;
     protected final String table;
 
+    private final SqlStatement insertAdd;
+    private final SqlStatement insertSet;
+    private final SqlStatement updateTake;
+    private final SqlStatement select;
+    private final SqlStatement selectTop;
+    private final SqlStatement selectMaxPages;
+    protected final SqlStatement selectTotal;
+
     protected Uuid2PosNumberTable(Sql sql, String table) {
         this.sql = sql;
         this.table = table;
+
+        // the table name is fixed, so the statements only need to be built once
+        this.insertAdd = sql.prepare(INSERT_ADD.replace("{table}", table));
+        this.insertSet = sql.prepare(INSERT_SET.replace("{table}", table));
+        this.updateTake = sql.prepare(UPDATE_TAKE.replace("{table}", table));
+        this.select = sql.prepare(SELECT.replace("{table}", table));
+        this.selectTop = sql.prepare(SELECT_TOP.replace("{table}", table));
+        this.selectMaxPages = sql.prepare(SELECT_MAX_PAGES.replace("{table}", table));
+        this.selectTotal = sql.prepare(SELECT_TOTAL.replace("{table}", table));
     }
 
     protected abstract String getCreateStmt();
@@ -83,44 +100,27 @@ public abstract class Uuid2PosNumberTable<T, O> {
     }
 
     protected Promise<Void> doAdd(UUID uuid, T amount) {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(INSERT_ADD.replace("{table}", table))) {
-                    ps.setString(1, uuid.toString());
-                    set(ps, 2, amount);
-                    set(ps, 3, amount);
-                    ps.execute();
-                }
-            }
-            return null;
+        return this.insertAdd.executeAsync(ps -> {
+            ps.setString(1, uuid.toString());
+            set(ps, 2, amount);
+            set(ps, 3, amount);
         });
     }
 
     protected Promise<Void> doSet(UUID uuid, T amount) {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(INSERT_SET.replace("{table}", table))) {
-                    ps.setString(1, uuid.toString());
-                    set(ps, 2, amount);
-                    set(ps, 3, amount);
-                    ps.execute();
-                }
-            }
-            return null;
+        return this.insertSet.executeAsync(ps -> {
+            ps.setString(1, uuid.toString());
+            set(ps, 2, amount);
+            set(ps, 3, amount);
         });
     }
 
     protected Promise<Boolean> doTake(UUID uuid, T amount) {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(UPDATE_TAKE.replace("{table}", table))) {
-                    set(ps, 1, amount);
-                    ps.setString(2, uuid.toString());
-                    set(ps, 3, amount);
-                    return ps.executeUpdate() != 0;
-                }
-            }
-        });
+        return this.updateTake.updateAsync(ps -> {
+            set(ps, 1, amount);
+            ps.setString(2, uuid.toString());
+            set(ps, 3, amount);
+        }).thenApplyAsync(count -> count != 0);
     }
 
     /**
@@ -132,19 +132,11 @@ public abstract class Uuid2PosNumberTable<T, O> {
     public Promise<O> get(UUID uuid) {
         Objects.requireNonNull(uuid, "uuid");
 
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(SELECT.replace("{table}", table))) {
-                    ps.setString(1, uuid.toString());
-
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            return getOptional(rs, "value");
-                        } else {
-                            return emptyOptional();
-                        }
-                    }
-                }
+        return this.select.queryAsync(ps -> ps.setString(1, uuid.toString()), rs -> {
+            if (rs.next()) {
+                return getOptional(rs, "value");
+            } else {
+                return emptyOptional();
             }
         });
     }
@@ -156,16 +148,7 @@ public abstract class Uuid2PosNumberTable<T, O> {
      * @return the max pages
      */
     public Promise<Integer> getOrderedMaxPages(int entriesPerPage) {
-        return Schedulers.async().call(() -> {
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(SELECT_MAX_PAGES.replace("{table}", table))) {
-                    ps.setInt(1, entriesPerPage);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        return rs.next() ? (int) Math.ceil(rs.getDouble("max_pages")) : 0;
-                    }
-                }
-            }
-        });
+        return this.selectMaxPages.queryAsync(ps -> ps.setInt(1, entriesPerPage), rs -> rs.next() ? (int) Math.ceil(rs.getDouble("max_pages")) : 0);
     }
 
     /**
@@ -178,25 +161,19 @@ public abstract class Uuid2PosNumberTable<T, O> {
     public Promise<List<Map.Entry<UUID, T>>> getOrderedPage(int page, int entriesPerPage) {
         int min = page * entriesPerPage;
         int max = page + entriesPerPage;
-        return Schedulers.async().call(() -> {
+        return this.selectTop.queryAsync(ps -> {
+            ps.setInt(1, min);
+            ps.setInt(2, max);
+        }, rs -> {
             List<Map.Entry<UUID, T>> entries = new ArrayList<>();
-            try (Connection c = sql.getConnection()) {
-                try (PreparedStatement ps = c.prepareStatement(SELECT_TOP.replace("{table}", table))) {
-                    ps.setInt(1, min);
-                    ps.setInt(2, max);
-
-                    try (ResultSet rs = ps.executeQuery()) {
-                        while (rs.next()) {
-                            entries.add(Maps.immutableEntry(
-                                    UUID.fromString(rs.getString("uuid")),
-                                    get(rs, "value")
-                            ));
-                        }
-                    }
-                }
+            while (rs.next()) {
+                entries.add(Maps.immutableEntry(
+                        UUID.fromString(rs.getString("uuid")),
+                        get(rs, "value")
+                ));
             }
             return entries;
         });
     }
 
-}
\ No newline at end of file
+}
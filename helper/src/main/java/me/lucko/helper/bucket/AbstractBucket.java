@@ -30,10 +30,13 @@ import com.google.common.collect.ImmutableList;
 import me.lucko.helper.bucket.partitioning.PartitioningStrategy;
 
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -56,7 +59,12 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
     protected final int size;
 
     /**
-     * The content in the bucket
+     * The index of the partition each element in the bucket is allocated to
+     */
+    protected final Map<E, Integer> allocations;
+
+    /**
+     * The content in the bucket - a view of the {@link #allocations} key set
      */
     protected final Set<E> content;
 
@@ -75,11 +83,17 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
      */
     private final Cycle<BucketPartition<E>> partitionCycle;
 
+    /**
+     * The maximum allowed size difference between partitions, or 0 to disable automatic rebalancing
+     */
+    private volatile int maxSkew = 0;
+
     protected AbstractBucket(int size, PartitioningStrategy<E> strategy) {
         this.strategy = strategy;
 
         this.size = size;
-        this.content = createSet();
+        this.allocations = createAllocationMap();
+        this.content = this.allocations.keySet();
 
         ImmutableList.Builder<Set<E>> sets = ImmutableList.builder();
         ImmutableList.Builder<BucketPartition<E>> views = ImmutableList.builder();
@@ -104,6 +118,15 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
      */
     protected abstract Set<E> createSet();
 
+    /**
+     * Supplies the map instance used to record which partition each element is allocated to
+     *
+     * @return a new map
+     */
+    protected Map<E, Integer> createAllocationMap() {
+        return new ConcurrentHashMap<>();
+    }
+
     @Override
     public int getPartitionCount() {
         return this.size;
@@ -127,30 +150,59 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
         return this.partitionCycle;
     }
 
+    @Override
+    public int getPartitionIndex(Object o) {
+        Integer index = this.allocations.get(o);
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public int getMaxPartitionSkew() {
+        return this.maxSkew;
+    }
+
+    @Override
+    public void setMaxPartitionSkew(int maxSkew) {
+        if (maxSkew < 0) {
+            throw new IllegalArgumentException("maxSkew < 0");
+        }
+        this.maxSkew = maxSkew;
+        if (maxSkew != 0) {
+            rebalance();
+        }
+    }
+
     @Override
     public boolean add(E e) {
         if (e == null) {
             throw new NullPointerException("Buckets do not accept null elements.");
         }
 
-        if (!this.content.add(e)) {
+        // check membership first, so a no-op add doesn't advance the strategy's state
+        if (this.allocations.containsKey(e)) {
             return false;
         }
 
-        this.partitions.get(this.strategy.allocate(e, this)).add(e);
+        int index = this.strategy.allocate(e, this);
+        if (this.allocations.putIfAbsent(e, index) != null) {
+            return false;
+        }
+
+        this.partitions.get(index).add(e);
+        if (this.maxSkew != 0) {
+            restoreSkew();
+        }
         return true;
     }
 
     @Override
     public boolean remove(Object o) {
-        if (!this.content.remove(o)) {
+        Integer index = this.allocations.remove(o);
+        if (index == null) {
            return false;
         }
 
-        for (Set<E> partition : this.partitions) {
-            partition.remove(o);
-        }
-
+        this.partitions.get(index).remove(o);
         return true;
     }
 
@@ -159,7 +211,104 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
         for (Set<E> partition : this.partitions) {
             partition.clear();
         }
-        this.content.clear();
+        this.allocations.clear();
+    }
+
+    @Override
+    public void rebalance() {
+        int total = this.allocations.size();
+        int base = total / this.size;
+        int extra = total % this.size;
+
+        // the first 'extra' partitions are allowed one more element than the rest
+        int[] targets = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            targets[i] = base + (i < extra ? 1 : 0);
+        }
+
+        int to = 0;
+        for (int from = 0; from < this.size; from++) {
+            Set<E> partition = this.partitions.get(from);
+            int surplus = partition.size() - targets[from];
+            if (surplus <= 0) {
+                continue;
+            }
+
+            // copy out the elements to move first, so we aren't modifying the partition while iterating it
+            List<E> moving = new ArrayList<>(surplus);
+            Iterator<E> it = partition.iterator();
+            while (moving.size() < surplus && it.hasNext()) {
+                moving.add(it.next());
+            }
+
+            for (E e : moving) {
+                while (to < this.size && this.partitions.get(to).size() >= targets[to]) {
+                    to++;
+                }
+                if (to == this.size) {
+                    return;
+                }
+                move(e, from, to);
+            }
+        }
+    }
+
+    // removals don't move elements, as callers commonly remove elements whilst iterating
+    // over a partition. any skew they introduce is corrected here, on the next add
+    private void restoreSkew() {
+        while (true) {
+            int largest = largestPartition();
+            int smallest = smallestPartition();
+            if (this.partitions.get(largest).size() - this.partitions.get(smallest).size() <= this.maxSkew) {
+                return;
+            }
+            if (!moveAny(largest, smallest)) {
+                return;
+            }
+        }
+    }
+
+    private int largestPartition() {
+        int index = 0;
+        for (int i = 1; i < this.size; i++) {
+            if (this.partitions.get(i).size() > this.partitions.get(index).size()) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private int smallestPartition() {
+        int index = 0;
+        for (int i = 1; i < this.size; i++) {
+            if (this.partitions.get(i).size() < this.partitions.get(index).size()) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private boolean moveAny(int from, int to) {
+        Iterator<E> it = this.partitions.get(from).iterator();
+        if (!it.hasNext()) {
+            return false;
+        }
+        return move(it.next(), from, to);
+    }
+
+    private boolean move(E e, int from, int to) {
+        if (!this.allocations.replace(e, from, to)) {
+            return false;
+        }
+
+        this.partitions.get(from).remove(e);
+        this.partitions.get(to).add(e);
+
+        // the element was removed from the bucket while it was being moved
+        if (!this.allocations.containsKey(e)) {
+            this.partitions.get(to).remove(e);
+        }
+        return true;
     }
 
     @Nonnull
@@ -214,12 +363,14 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
                 throw new IllegalStateException();
             }
 
+            Integer index = AbstractBucket.this.allocations.get(this.current);
+
             // remove from the global collection
             this.delegate.remove();
 
             // also remove the element from it's contained partition
-            for (Set<E> partition : AbstractBucket.this.partitions) {
-                partition.remove(this.current);
+            if (index != null) {
+                AbstractBucket.this.partitions.get(index).remove(this.current);
             }
         }
 
@@ -251,7 +402,7 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
 
         @Override
         public Iterator<E> iterator() {
-            return new SetViewIterator(this.backing.iterator());
+            return new SetViewIterator(this.backing.iterator(), this.index);
         }
 
         @Override
@@ -261,14 +412,16 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
             }
 
             // also remove from the bucket content set
-            AbstractBucket.this.content.remove(o);
+            AbstractBucket.this.allocations.remove(o, this.index);
             return true;
         }
 
         @Override
         public void clear() {
             // remove the content of the backing from the bucket content set
-            AbstractBucket.this.content.removeAll(this.backing);
+            for (E e : this.backing) {
+                AbstractBucket.this.allocations.remove(e, this.index);
+            }
             // then clear the backing
             this.backing.clear();
         }
@@ -317,10 +470,12 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
      */
     private final class SetViewIterator implements Iterator<E> {
         private final Iterator<E> delegate;
+        private final int index;
         private E current;
 
-        private SetViewIterator(Iterator<E> delegate) {
+        private SetViewIterator(Iterator<E> delegate, int index) {
             this.delegate = delegate;
+            this.index = index;
         }
 
         @Override
@@ -345,7 +500,8 @@ public abstract class AbstractBucket<E> extends AbstractSet<E> implements Bucket
             this.delegate.remove();
 
             // also remove from the bucket content set
-            AbstractBucket.this.content.remove(this.current);
+            // no rebalancing here, as that could modify the partition being iterated
+            AbstractBucket.this.allocations.remove(this.current, this.index);
         }
 
         @Override
@@ -37,8 +37,13 @@ import javax.annotation.Nonnull;
  * to be separated into parts by a {@link PartitioningStrategy}.
  *
  * <p>The performance of {@link Bucket} should be largely similar to the performance
- * of the underlying {@link Set}. Elements are stored twice - once in a set
- * containing all elements in the bucket, and again in a set representing each partition.</p>
+ * of the underlying {@link Set}. Elements are stored twice - once in a map recording
+ * the partition each element in the bucket was allocated to, and again in a set
+ * representing each partition.</p>
+ *
+ * <p>Partitions are only assigned as elements are added, so may drift out of balance as
+ * elements are removed. Buckets can be rebalanced on demand using {@link #rebalance()},
+ * or kept within a maximum size skew automatically using {@link #setMaxPartitionSkew(int)}.</p>
  *
  * @param <E> the element type
  */
@@ -83,4 +88,43 @@ public interface Bucket<E> extends Set<E> {
     @Nonnull
     Cycle<BucketPartition<E>> asCycle();
 
+    /**
+     * Gets the index of the partition the given element is allocated to.
+     *
+     * @param o the element
+     * @return the partition index, or -1 if the element is not in the bucket
+     */
+    int getPartitionIndex(Object o);
+
+    /**
+     * Moves elements between partitions so that the sizes of all partitions
+     * differ by at most one.
+     */
+    void rebalance();
+
+    /**
+     * Gets the maximum allowed difference between the sizes of the largest and
+     * smallest partitions.
+     *
+     * @return the maximum skew, or 0 if automatic rebalancing is disabled
+     */
+    int getMaxPartitionSkew();
+
+    /**
+     * Sets the maximum allowed difference between the sizes of the largest and
+     * smallest partitions.
+     *
+     * <p>When enabled, the bucket is {@link #rebalance() rebalanced} immediately, and
+     * elements are then moved between partitions as elements are added to keep within
+     * the limit. This costs a scan of the partition sizes per add.</p>
+     *
+     * <p>Removing an element never moves other elements between partitions, so removals
+     * do not affect iterations over other partitions. Adding an element may move elements
+     * between any two partitions, so elements should not be added whilst iterating over
+     * a partition, unless the partitions are backed by concurrent sets.</p>
+     *
+     * @param maxSkew the maximum skew, or 0 to disable automatic rebalancing
+     */
+    void setMaxPartitionSkew(int maxSkew);
+
 }
@@ -28,7 +28,9 @@ package me.lucko.helper.bucket.factory;
 import me.lucko.helper.bucket.AbstractBucket;
 import me.lucko.helper.bucket.partitioning.PartitioningStrategy;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 class HashSetBucket<E> extends AbstractBucket<E> {
@@ -40,4 +42,9 @@ class HashSetBucket<E> extends AbstractBucket<E> {
     protected Set<E> createSet() {
         return new HashSet<>();
     }
+
+    @Override
+    protected Map<E, Integer> createAllocationMap() {
+        return new HashMap<>();
+    }
 }
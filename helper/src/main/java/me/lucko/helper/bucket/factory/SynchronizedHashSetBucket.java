@@ -29,7 +29,9 @@ import me.lucko.helper.bucket.AbstractBucket;
 import me.lucko.helper.bucket.partitioning.PartitioningStrategy;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 class SynchronizedHashSetBucket<E> extends AbstractBucket<E> {
@@ -41,4 +43,9 @@ class SynchronizedHashSetBucket<E> extends AbstractBucket<E> {
     protected Set<E> createSet() {
         return Collections.synchronizedSet(new HashSet<>());
     }
+
+    @Override
+    protected Map<E, Integer> createAllocationMap() {
+        return Collections.synchronizedMap(new HashMap<>());
+    }
 }
@@ -35,17 +35,28 @@ import com.google.common.reflect.TypeToken;
 
 import me.lucko.helper.Schedulers;
 import me.lucko.helper.messaging.codec.Codec;
-import me.lucko.helper.messaging.codec.GZipCodec;
+import me.lucko.helper.messaging.codec.CompressedCodec;
+import me.lucko.helper.messaging.codec.Compression;
 import me.lucko.helper.messaging.codec.GsonCodec;
 import me.lucko.helper.messaging.codec.Message;
 import me.lucko.helper.promise.Promise;
 import me.lucko.helper.utils.annotation.NonnullByDefault;
 
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -55,8 +66,10 @@ import javax.annotation.Nullable;
 /**
  * An abstract implementation of {@link Messenger}.
  *
- * <p>Outgoing messages are passed to a {@link BiConsumer} to be passed on.</p>
+ * <p>Outgoing messages are passed to a {@link BiConsumer} or {@link OutgoingMessageSink} to be passed on.</p>
  * <p>Incoming messages can be distributed using {@link #registerIncomingMessage(String, byte[])}.</p>
+ * <p>Each incoming message is decoded once for each distinct {@link Codec} in use by
+ * channels with the same name, and the result shared between those channels.</p>
  */
 @NonnullByDefault
 public class AbstractMessenger implements Messenger {
@@ -64,8 +77,14 @@ public class AbstractMessenger implements Messenger {
     @SuppressWarnings("unchecked")
     private final LoadingCache<Map.Entry<String, TypeToken<?>>, AbstractChannel<?>> channels = CacheBuilder.newBuilder().build(new ChannelLoader());
 
-    // consumer for outgoing messages. accepts in the format [channel name, message]
-    private final BiConsumer<String, byte[]> outgoingMessages;
+    // the channels registered under each name, used to dispatch incoming messages
+    private final Map<String, DispatchEntry> dispatchTable = new ConcurrentHashMap<>();
+
+    // instances of the codecs specified by @Message annotations
+    private final Map<Class<?>, Codec<?>> annotatedCodecs = new ConcurrentHashMap<>();
+
+    // sink for outgoing messages. accepts in the format [channel name, message, result]
+    private final OutgoingMessageSink outgoingMessages;
     // consumer for channel names which should be subscribed to.
     private final Consumer<String> notifySub;
     // consumer for channel names which should be unsubscribed from.
@@ -79,6 +98,24 @@ public class AbstractMessenger implements Messenger {
      * @param notifyUnsub the consumer to pass the names of channels which should be unsubscribed from
      */
     public AbstractMessenger(BiConsumer<String, byte[]> outgoingMessages, Consumer<String> notifySub, Consumer<String> notifyUnsub) {
+        Objects.requireNonNull(outgoingMessages, "outgoingMessages");
+        this.outgoingMessages = (channel, message, result) -> {
+            outgoingMessages.accept(channel, message);
+            result.supply(null);
+        };
+        this.notifySub = Objects.requireNonNull(notifySub, "notifySub");
+        this.notifyUnsub = Objects.requireNonNull(notifyUnsub, "notifyUnsub");
+    }
+
+    /**
+     * Creates a new abstract messenger, which passes outgoing messages to a sink
+     * which completes them asynchronously.
+     *
+     * @param outgoingMessages the sink to pass outgoing messages to
+     * @param notifySub the consumer to pass the names of channels which should be subscribed to
+     * @param notifyUnsub the consumer to pass the names of channels which should be unsubscribed from
+     */
+    public AbstractMessenger(OutgoingMessageSink outgoingMessages, Consumer<String> notifySub, Consumer<String> notifyUnsub) {
         this.outgoingMessages = Objects.requireNonNull(outgoingMessages, "outgoingMessages");
         this.notifySub = Objects.requireNonNull(notifySub, "notifySub");
         this.notifyUnsub = Objects.requireNonNull(notifyUnsub, "notifyUnsub");
@@ -94,13 +131,55 @@ public class AbstractMessenger implements Messenger {
         Objects.requireNonNull(channel, "channel");
         Objects.requireNonNull(message, "message");
 
-        for (Map.Entry<Map.Entry<String, TypeToken<?>>, AbstractChannel<?>> c : this.channels.asMap().entrySet()) {
-            if (c.getKey().getKey().equals(channel)) {
-                c.getValue().onIncomingMessage(message);
-            }
+        DispatchEntry entry = this.dispatchTable.get(channel);
+        if (entry != null) {
+            entry.dispatch(message);
         }
     }
 
+    /**
+     * Distributes a message to the channels held in this messenger, without
+     * encoding it.
+     *
+     * <p>Channels with the same type as the source channel are passed the message
+     * object itself. Other channels with the same name are passed a copy, encoded
+     * using the source channel's codec.</p>
+     *
+     * @param source the channel the message was sent from
+     * @param message the message
+     * @param <T> the message type
+     */
+    public <T> void registerIncomingObject(Channel<T> source, T message) {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(message, "message");
+
+        DispatchEntry entry = this.dispatchTable.get(source.getName());
+        if (entry != null) {
+            entry.dispatchObject(source, message);
+        }
+    }
+
+    /**
+     * Gets metrics for the messages received on the given channel name.
+     *
+     * @param channel the channel name
+     * @return the metrics, or null if no channels with the name have been created
+     */
+    @Nullable
+    public ChannelMetrics getChannelMetrics(String channel) {
+        Objects.requireNonNull(channel, "channel");
+        return this.dispatchTable.get(channel);
+    }
+
+    /**
+     * Gets metrics for the messages received on each channel name.
+     *
+     * @return the metrics
+     */
+    public Collection<ChannelMetrics> getChannelMetrics() {
+        return Collections.unmodifiableCollection(this.dispatchTable.values());
+    }
+
     @Nonnull
     @SuppressWarnings("unchecked")
     @Override
@@ -112,22 +191,185 @@ public class AbstractMessenger implements Messenger {
         return (Channel<T>) this.channels.getUnchecked(Maps.immutableEntry(name, type));
     }
 
-    private static <T> Codec<T> getCodec(TypeToken<T> type) {
-        Class<? super T> rawType = type.getRawType();
+    @SuppressWarnings("unchecked")
+    private <T> Codec<T> getCodec(TypeToken<T> type) {
+        Message message = getMessageAnnotation(type);
+        if (message == null) {
+            return new CompressedCodec<>(new GsonCodec<>(type), Compression.GZIP);
+        }
+
+        Codec<T> codec = null;
+        if (message.codec() != Message.DefaultCodec.class) {
+            codec = createTypedCodec(message.codec(), type);
+            if (codec == null) {
+                // codecs which don't accept the type can be shared between channels
+                codec = (Codec<T>) this.annotatedCodecs.computeIfAbsent(message.codec(), AbstractMessenger::createCodec);
+            }
+        }
+        if (codec == null) {
+            codec = new GsonCodec<>(type);
+        }
+        return new CompressedCodec<>(codec, message.compression(), message.compressionThreshold());
+    }
+
+    @Nullable
+    private static Message getMessageAnnotation(TypeToken<?> type) {
+        Class<?> rawType = type.getRawType();
         do {
             Message message = rawType.getAnnotation(Message.class);
             if (message != null) {
-                Class<? extends Codec<?>> codec = message.codec();
-                try {
-                    //noinspection unchecked
-                    return (Codec<T>) codec.getDeclaredConstructor().newInstance();
-                } catch (ReflectiveOperationException e) {
-                    e.printStackTrace();
-                }
+                return message;
             }
         } while ((rawType = rawType.getSuperclass()) != null);
+        return null;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T> Codec<T> createTypedCodec(Class<?> codecClass, TypeToken<T> type) {
+        Constructor<?> constructor;
+        try {
+            constructor = codecClass.getDeclaredConstructor(TypeToken.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+
+        try {
+            return (Codec<T>) constructor.newInstance(type);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Codec<?> createCodec(Class<?> codecClass) {
+        try {
+            return (Codec<?>) codecClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The channels registered under a single name.
+     */
+    private static final class DispatchEntry implements ChannelMetrics {
+        private final String name;
+        private final List<AbstractChannel<?>> channels = new CopyOnWriteArrayList<>();
+
+        private final LongAdder messagesIn = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder decodeFailures = new LongAdder();
+
+        private DispatchEntry(String name) {
+            this.name = name;
+        }
+
+        private void dispatch(byte[] message) {
+            this.messagesIn.increment();
+            this.bytesIn.add(message.length);
+
+            // the codecs already used to decode this message, and their results
+            List<Codec<?>> codecs = null;
+            List<Object> results = null;
+
+            for (AbstractChannel<?> channel : this.channels) {
+                Object decoded = null;
+                boolean found = false;
+
+                if (codecs != null) {
+                    for (int i = 0; i < codecs.size(); i++) {
+                        if (codecs.get(i).equals(channel.codec)) {
+                            decoded = results.get(i);
+                            found = true;
+                            break;
+                        }
+                    }
+                } else {
+                    codecs = new ArrayList<>(1);
+                    results = new ArrayList<>(1);
+                }
+
+                if (!found) {
+                    decoded = decode(channel.codec, message);
+                    codecs.add(channel.codec);
+                    results.add(decoded);
+                }
+
+                if (decoded != null) {
+                    channel.onIncomingMessage(decoded);
+                }
+            }
+        }
+
+        private <T> void dispatchObject(Channel<T> source, T message) {
+            this.messagesIn.increment();
+
+            byte[] encoded = null;
+            boolean encodeFailed = false;
+            for (AbstractChannel<?> channel : this.channels) {
+                if (channel.type.equals(source.getType())) {
+                    channel.onIncomingMessage(message);
+                    continue;
+                }
+
+                // the channel expects a different type, so convert using the codecs.
+                // if that isn't possible, carry on delivering to channels of the same type
+                if (encodeFailed) {
+                    continue;
+                }
+                if (encoded == null) {
+                    try {
+                        encoded = source.getCodec().encode(message);
+                    } catch (Exception e) {
+                        new RuntimeException("Unable to encode message: " + message, e).printStackTrace();
+                        encodeFailed = true;
+                        continue;
+                    }
+                    this.bytesIn.add(encoded.length);
+                }
+
+                Object decoded = decode(channel.codec, encoded);
+                if (decoded != null) {
+                    channel.onIncomingMessage(decoded);
+                }
+            }
+        }
+
+        @Nullable
+        private Object decode(Codec<?> codec, byte[] message) {
+            try {
+                Object decoded = codec.decode(message);
+                Objects.requireNonNull(decoded, "decoded");
+                return decoded;
+            } catch (Exception e) {
+                this.decodeFailures.increment();
+                new RuntimeException("Unable to decode message: " + Base64.getEncoder().encodeToString(message), e).printStackTrace();
+                return null;
+            }
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public long getMessagesIn() {
+            return this.messagesIn.sum();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return this.bytesIn.sum();
+        }
 
-        return new GsonCodec<>(type);
+        @Override
+        public long getDecodeFailures() {
+            return this.decodeFailures.sum();
+        }
     }
 
     private static class AbstractChannel<T> implements Channel<T> {
@@ -137,30 +379,29 @@ public class AbstractMessenger implements Messenger {
         private final Codec<T> codec;
 
         private final Set<AbstractChannelAgent<T>> agents = ConcurrentHashMap.newKeySet();
+
+        // messages waiting to be encoded and published. drained by a single task at a
+        // time, so messages reach the outgoing sink in the order they were sent
+        private final Queue<Map.Entry<T, Promise<Void>>> outgoing = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean(false);
         private boolean subscribed = false;
 
         private AbstractChannel(AbstractMessenger messenger, String name, TypeToken<T> type) {
             this.messenger = messenger;
             this.name = name;
             this.type = type;
-            this.codec = new GZipCodec<>(AbstractMessenger.getCodec(type));
+            this.codec = messenger.getCodec(type);
         }
 
-        private void onIncomingMessage(byte[] message) {
-            try {
-                T decoded = this.codec.decode(message);
-                Objects.requireNonNull(decoded, "decoded");
-
-                for (AbstractChannelAgent<T> agent : this.agents) {
-                    try {
-                        agent.onIncomingMessage(decoded);
-                    } catch (Exception e) {
-                        new RuntimeException("Unable to pass decoded message to agent: " + decoded, e).printStackTrace();
-                    }
+        @SuppressWarnings("unchecked")
+        private void onIncomingMessage(Object message) {
+            T decoded = (T) message;
+            for (AbstractChannelAgent<T> agent : this.agents) {
+                try {
+                    agent.onIncomingMessage(decoded);
+                } catch (Exception e) {
+                    new RuntimeException("Unable to pass decoded message to agent: " + decoded, e).printStackTrace();
                 }
-
-            } catch (Exception e) {
-                new RuntimeException("Unable to decode message: " + Base64.getEncoder().encodeToString(message), e).printStackTrace();
             }
         }
 
@@ -210,11 +451,37 @@ public class AbstractMessenger implements Messenger {
         @Override
         public Promise<Void> sendMessage(T message) {
             Objects.requireNonNull(message, "message");
-            return Schedulers.async().call(() -> {
-                byte[] buf = this.codec.encode(message);
-                this.messenger.outgoingMessages.accept(this.name, buf);
-                return null;
-            });
+            Promise<Void> result = Promise.empty();
+            if (this.messenger.outgoingMessages.publishObject(this, message, result)) {
+                return result;
+            }
+
+            this.outgoing.add(Maps.immutableEntry(message, result));
+            if (this.draining.compareAndSet(false, true)) {
+                Schedulers.async().run(this::drainOutgoing);
+            }
+            return result;
+        }
+
+        private void drainOutgoing() {
+            while (true) {
+                Map.Entry<T, Promise<Void>> entry;
+                while ((entry = this.outgoing.poll()) != null) {
+                    try {
+                        byte[] buf = this.codec.encode(entry.getKey());
+                        this.messenger.outgoingMessages.publish(this.name, buf, entry.getValue());
+                    } catch (Throwable t) {
+                        entry.getValue().supplyException(t);
+                    }
+                }
+
+                this.draining.set(false);
+
+                // a message may have been queued after the last poll, but before the flag was cleared
+                if (this.outgoing.isEmpty() || !this.draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
         }
     }
 
@@ -289,10 +556,48 @@ public class AbstractMessenger implements Messenger {
         }
     }
 
+    /**
+     * Accepts outgoing messages from an {@link AbstractMessenger}.
+     */
+    @FunctionalInterface
+    public interface OutgoingMessageSink {
+
+        /**
+         * Publishes a message.
+         *
+         * <p>The result should be completed once the message has been sent, or
+         * completed exceptionally if sending failed.</p>
+         *
+         * @param channel the channel name
+         * @param message the encoded message
+         * @param result the result of the send operation
+         */
+        void publish(String channel, byte[] message, Promise<Void> result);
+
+        /**
+         * Publishes a message without encoding it, if the sink is able to.
+         *
+         * <p>If this method returns false, the message is encoded and passed to
+         * {@link #publish(String, byte[], Promise)} instead.</p>
+         *
+         * @param channel the channel the message is being sent on
+         * @param message the message
+         * @param result the result of the send operation
+         * @param <T> the message type
+         * @return true if the message was published
+         */
+        default <T> boolean publishObject(Channel<T> channel, T message, Promise<Void> result) {
+            return false;
+        }
+
+    }
+
     private class ChannelLoader<T> extends CacheLoader<Map.Entry<String, TypeToken<T>>, Channel<T>> {
         @Override
         public Channel<T> load(Map.Entry<String, TypeToken<T>> spec) throws Exception {
-            return new AbstractChannel<>(AbstractMessenger.this, spec.getKey(), spec.getValue());
+            AbstractChannel<T> channel = new AbstractChannel<>(AbstractMessenger.this, spec.getKey(), spec.getValue());
+            AbstractMessenger.this.dispatchTable.computeIfAbsent(spec.getKey(), DispatchEntry::new).channels.add(channel);
+            return channel;
         }
     }
 }
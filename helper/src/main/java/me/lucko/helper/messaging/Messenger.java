@@ -72,6 +72,9 @@ public interface Messenger {
     /**
      * Gets a req/resp channel by name.
      *
+     * <p>If this messenger also provides {@link InstanceData}, replies are routed back to
+     * this instance only.</p>
+     *
      * @param name the name of the channel
      * @param reqType the request typetoken
      * @param respType the response typetoken
@@ -81,7 +84,28 @@ public interface Messenger {
      */
     @Nonnull
     default <Req, Resp> ReqRespChannel<Req, Resp> getReqRespChannel(@Nonnull String name, @Nonnull TypeToken<Req> reqType, @Nonnull TypeToken<Resp> respType) {
-        return new SimpleReqRespChannel<>(this, name, reqType, respType);
+        InstanceData instanceData = this instanceof InstanceData ? (InstanceData) this : null;
+        return new SimpleReqRespChannel<>(this, name, reqType, respType, instanceData);
+    }
+
+    /**
+     * Gets a req/resp channel by name.
+     *
+     * <p>Replies to requests sent from the returned channel are routed back to the given
+     * instance only, and requests can be targeted at the instance or its groups.</p>
+     *
+     * @param name the name of the channel
+     * @param reqType the request typetoken
+     * @param respType the response typetoken
+     * @param instanceData the current instance
+     * @param <Req> the request type
+     * @param <Resp> the response type
+     * @return the req/resp channel
+     */
+    @Nonnull
+    default <Req, Resp> ReqRespChannel<Req, Resp> getReqRespChannel(@Nonnull String name, @Nonnull TypeToken<Req> reqType, @Nonnull TypeToken<Resp> respType, @Nonnull InstanceData instanceData) {
+        Objects.requireNonNull(instanceData, "instanceData");
+        return new SimpleReqRespChannel<>(this, name, reqType, respType, instanceData);
     }
 
     /**
@@ -0,0 +1,93 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.codec;
+
+import com.google.common.reflect.TypeToken;
+
+import java.util.Objects;
+
+/**
+ * Implementation of {@link Codec} using a compact binary format.
+ *
+ * <p>Unlike {@link GsonCodec}, field names are not included in the encoded form - fields
+ * are written in a fixed order, derived from the message class. As such, all nodes must
+ * use the same version of the message class. The layout for each type is computed once
+ * and cached.</p>
+ *
+ * <p>Supports primitives, strings, enums, {@link java.util.UUID}s, helper's
+ * {@link me.lucko.helper.serialize.Position}, {@link me.lucko.helper.serialize.BlockPosition}
+ * and {@link me.lucko.helper.serialize.ChunkPosition}, arrays, collections and maps.
+ * Values of other types are written field by field, or as JSON if they are interfaces,
+ * abstract or JDK types.</p>
+ *
+ * <p>Can be selected using {@code @Message(codec = BinaryCodec.class)}.</p>
+ *
+ * @param <M> the message type
+ */
+public class BinaryCodec<M> implements Codec<M> {
+    private final TypeToken<M> type;
+    private final BinarySerializers.Serializer<M> serializer;
+
+    public BinaryCodec(TypeToken<M> type) {
+        this.type = Objects.requireNonNull(type, "type");
+        this.serializer = BinarySerializers.get(type);
+    }
+
+    public BinaryCodec(Class<M> type) {
+        this(TypeToken.of(type));
+    }
+
+    @Override
+    public byte[] encode(M message) throws EncodingException {
+        BinarySerializers.Writer out = new BinarySerializers.Writer(64);
+        this.serializer.write(out, message);
+        return out.toByteArray();
+    }
+
+    @Override
+    public M decode(byte[] buf) throws EncodingException {
+        try {
+            return this.serializer.read(new BinarySerializers.Reader(buf));
+        } catch (EncodingException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. a null element in an immutable collection - the input is malformed
+            throw new EncodingException("Malformed message", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return this.type.equals(((BinaryCodec<?>) o).type);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.type.hashCode();
+    }
+}
@@ -0,0 +1,796 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.codec;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.JsonElement;
+
+import me.lucko.helper.gson.GsonProvider;
+import me.lucko.helper.serialize.BlockPosition;
+import me.lucko.helper.serialize.ChunkPosition;
+import me.lucko.helper.serialize.Position;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builds and caches the {@link Serializer}s used by {@link BinaryCodec}.
+ *
+ * <p>Objects are written field by field, in a fixed order - fields declared by
+ * superclasses first, then by name. Integral values are written as (zig-zag) varints,
+ * and reference values are preceded by a single byte indicating whether they are null.</p>
+ *
+ * <p>Types which can't be handled directly (interfaces, abstract classes, JSON trees, and
+ * other JDK types) are written as Gson JSON strings.</p>
+ */
+final class BinarySerializers {
+    private static final Map<TypeToken<?>, Serializer<?>> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Writes and reads values of a given type.
+     *
+     * @param <T> the type
+     */
+    interface Serializer<T> {
+        void write(Writer out, T value);
+
+        T read(Reader in);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Serializer<T> get(TypeToken<T> type) {
+        Serializer<?> serializer = CACHE.get(type);
+        if (serializer == null) {
+            serializer = new NullableSerializer<>(create(type));
+            Serializer<?> existing = CACHE.putIfAbsent(type, serializer);
+            if (existing != null) {
+                serializer = existing;
+            }
+        }
+        return (Serializer<T>) serializer;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Serializer<?> create(TypeToken<?> type) {
+        Class<?> raw = Primitives.wrap(type.getRawType());
+
+        if (raw == Boolean.class) {
+            return new SimpleSerializer<>(Writer::writeBoolean, Reader::readBoolean);
+        }
+        if (raw == Byte.class) {
+            return new SimpleSerializer<Byte>(Writer::writeByte, Reader::readByte);
+        }
+        if (raw == Short.class) {
+            return new SimpleSerializer<Short>((out, v) -> out.writeSignedVarInt(v), in -> (short) in.readSignedVarInt());
+        }
+        if (raw == Character.class) {
+            return new SimpleSerializer<Character>((out, v) -> out.writeVarInt(v), in -> (char) in.readVarInt());
+        }
+        if (raw == Integer.class) {
+            return new SimpleSerializer<>(Writer::writeSignedVarInt, Reader::readSignedVarInt);
+        }
+        if (raw == Long.class) {
+            return new SimpleSerializer<>(Writer::writeSignedVarLong, Reader::readSignedVarLong);
+        }
+        if (raw == Float.class) {
+            return new SimpleSerializer<Float>((out, v) -> out.writeInt(Float.floatToIntBits(v)), in -> Float.intBitsToFloat(in.readInt()));
+        }
+        if (raw == Double.class) {
+            return new SimpleSerializer<Double>((out, v) -> out.writeLong(Double.doubleToLongBits(v)), in -> Double.longBitsToDouble(in.readLong()));
+        }
+        if (raw == String.class) {
+            return new SimpleSerializer<>(Writer::writeString, Reader::readString);
+        }
+        if (raw == UUID.class) {
+            return new SimpleSerializer<UUID>((out, v) -> {
+                out.writeLong(v.getMostSignificantBits());
+                out.writeLong(v.getLeastSignificantBits());
+            }, in -> new UUID(in.readLong(), in.readLong()));
+        }
+        if (raw == byte[].class) {
+            return new SimpleSerializer<byte[]>((out, v) -> {
+                out.writeVarInt(v.length);
+                out.writeBytes(v);
+            }, in -> in.readBytes(in.readVarInt()));
+        }
+        if (raw == Position.class) {
+            return new SimpleSerializer<Position>((out, v) -> {
+                out.writeLong(Double.doubleToLongBits(v.getX()));
+                out.writeLong(Double.doubleToLongBits(v.getY()));
+                out.writeLong(Double.doubleToLongBits(v.getZ()));
+                out.writeString(v.getWorld());
+            }, in -> Position.of(Double.longBitsToDouble(in.readLong()), Double.longBitsToDouble(in.readLong()), Double.longBitsToDouble(in.readLong()), in.readString()));
+        }
+        if (raw == BlockPosition.class) {
+            return new SimpleSerializer<BlockPosition>((out, v) -> {
+                out.writeSignedVarInt(v.getX());
+                out.writeSignedVarInt(v.getY());
+                out.writeSignedVarInt(v.getZ());
+                out.writeString(v.getWorld());
+            }, in -> BlockPosition.of(in.readSignedVarInt(), in.readSignedVarInt(), in.readSignedVarInt(), in.readString()));
+        }
+        if (raw == ChunkPosition.class) {
+            return new SimpleSerializer<ChunkPosition>((out, v) -> {
+                out.writeSignedVarInt(v.getX());
+                out.writeSignedVarInt(v.getZ());
+                out.writeString(v.getWorld());
+            }, in -> ChunkPosition.of(in.readSignedVarInt(), in.readSignedVarInt(), in.readString()));
+        }
+        if (Enum.class.isAssignableFrom(raw)) {
+            // constants with bodies are subclasses of the enum type
+            Class<?> enumClass = raw.isEnum() ? raw : raw.getSuperclass();
+            Object[] constants = enumClass.getEnumConstants();
+            return new SimpleSerializer<Enum>((out, v) -> out.writeVarInt(v.ordinal()), in -> {
+                int ordinal = in.readVarInt();
+                if (ordinal < 0 || ordinal >= constants.length) {
+                    throw new EncodingException("Invalid ordinal for " + enumClass.getName() + ": " + ordinal);
+                }
+                return (Enum) constants[ordinal];
+            });
+        }
+        if (raw.isArray()) {
+            TypeToken<?> componentType = type.getComponentType();
+            return new ArraySerializer(componentType.getRawType(), new LazySerializer<>(componentType));
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            Supplier<Map<Object, Object>> factory = mapFactory(raw);
+            if (factory != null) {
+                TypeToken<?> keyType = type.resolveType(Map.class.getTypeParameters()[0]);
+                TypeToken<?> valueType = type.resolveType(Map.class.getTypeParameters()[1]);
+                Function<Map<Object, Object>, Map<Object, Object>> finisher = raw == ImmutableMap.class ? ImmutableMap::copyOf : Function.identity();
+                return new MapSerializer(new LazySerializer<>(keyType), new LazySerializer<>(valueType), factory, finisher);
+            }
+        }
+        if (Collection.class.isAssignableFrom(raw)) {
+            Supplier<Collection<Object>> factory = collectionFactory(raw);
+            if (factory != null) {
+                TypeToken<?> elementType = type.resolveType(Collection.class.getTypeParameters()[0]);
+                Function<Collection<Object>, Collection<Object>> finisher = Function.identity();
+                if (raw == ImmutableList.class || raw == ImmutableCollection.class) {
+                    finisher = ImmutableList::copyOf;
+                } else if (raw == ImmutableSet.class) {
+                    finisher = ImmutableSet::copyOf;
+                }
+                return new CollectionSerializer(new LazySerializer<>(elementType), factory, finisher);
+            }
+        }
+
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers()) || JsonElement.class.isAssignableFrom(raw) || raw.getName().startsWith("java.")) {
+            return new GsonSerializer<>(type);
+        }
+        return new ObjectSerializer<>(type);
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static Supplier<Map<Object, Object>> mapFactory(Class<?> raw) {
+        if (raw == ImmutableMap.class) {
+            return LinkedHashMap::new;
+        }
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (raw.isAssignableFrom(TreeMap.class) && SortedMap.class.isAssignableFrom(raw)) {
+                return TreeMap::new;
+            }
+            if (raw.isAssignableFrom(LinkedHashMap.class)) {
+                return LinkedHashMap::new;
+            }
+            return null;
+        }
+        return (Supplier<Map<Object, Object>>) (Supplier<?>) constructorFactory(raw);
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static Supplier<Collection<Object>> collectionFactory(Class<?> raw) {
+        if (raw == ImmutableList.class || raw == ImmutableSet.class || raw == ImmutableCollection.class) {
+            return ArrayList::new;
+        }
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (raw.isAssignableFrom(TreeSet.class) && SortedSet.class.isAssignableFrom(raw)) {
+                return TreeSet::new;
+            }
+            if (raw.isAssignableFrom(ArrayList.class)) {
+                return ArrayList::new;
+            }
+            if (raw.isAssignableFrom(LinkedHashSet.class)) {
+                return LinkedHashSet::new;
+            }
+            if (raw.isAssignableFrom(ArrayDeque.class) && Queue.class.isAssignableFrom(raw)) {
+                return ArrayDeque::new;
+            }
+            return null;
+        }
+        return (Supplier<Collection<Object>>) (Supplier<?>) constructorFactory(raw);
+    }
+
+    @Nullable
+    private static Supplier<Object> constructorFactory(Class<?> raw) {
+        Constructor<?> constructor;
+        try {
+            constructor = raw.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+        return () -> {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new EncodingException("Unable to construct " + raw.getName(), e);
+            }
+        };
+    }
+
+    private static final class NullableSerializer<T> implements Serializer<T> {
+        private final Serializer<T> delegate;
+
+        private NullableSerializer(Serializer<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(Writer out, T value) {
+            if (value == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                this.delegate.write(out, value);
+            }
+        }
+
+        @Override
+        public T read(Reader in) {
+            return in.readBoolean() ? this.delegate.read(in) : null;
+        }
+    }
+
+    /**
+     * Defers looking up a serializer until first use, so recursive types can be handled.
+     */
+    private static final class LazySerializer<T> implements Serializer<T> {
+        private final TypeToken<T> type;
+        private Serializer<T> delegate;
+
+        private LazySerializer(TypeToken<T> type) {
+            this.type = type;
+        }
+
+        private Serializer<T> delegate() {
+            Serializer<T> delegate = this.delegate;
+            if (delegate == null) {
+                this.delegate = delegate = get(this.type);
+            }
+            return delegate;
+        }
+
+        @Override
+        public void write(Writer out, T value) {
+            delegate().write(out, value);
+        }
+
+        @Override
+        public T read(Reader in) {
+            return delegate().read(in);
+        }
+    }
+
+    private static final class SimpleSerializer<T> implements Serializer<T> {
+        private final WriteFunction<T> writer;
+        private final Function<Reader, T> reader;
+
+        private SimpleSerializer(WriteFunction<T> writer, Function<Reader, T> reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        @Override
+        public void write(Writer out, T value) {
+            this.writer.write(out, value);
+        }
+
+        @Override
+        public T read(Reader in) {
+            return this.reader.apply(in);
+        }
+    }
+
+    @FunctionalInterface
+    private interface WriteFunction<T> {
+        void write(Writer out, T value);
+    }
+
+    private static final class GsonSerializer<T> implements Serializer<T> {
+        private final TypeToken<T> type;
+
+        private GsonSerializer(TypeToken<T> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(Writer out, T value) {
+            out.writeString(GsonProvider.standard().toJson(value, this.type.getType()));
+        }
+
+        @Override
+        public T read(Reader in) {
+            return GsonProvider.standard().fromJson(in.readString(), this.type.getType());
+        }
+    }
+
+    private static final class ArraySerializer implements Serializer<Object> {
+        private final Class<?> componentType;
+        private final Serializer<Object> elementSerializer;
+
+        @SuppressWarnings("unchecked")
+        private ArraySerializer(Class<?> componentType, Serializer<?> elementSerializer) {
+            this.componentType = componentType;
+            this.elementSerializer = (Serializer<Object>) elementSerializer;
+        }
+
+        @Override
+        public void write(Writer out, Object value) {
+            int length = Array.getLength(value);
+            out.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                this.elementSerializer.write(out, Array.get(value, i));
+            }
+        }
+
+        @Override
+        public Object read(Reader in) {
+            int length = in.readLength();
+            Object array = Array.newInstance(this.componentType, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, this.elementSerializer.read(in));
+            }
+            return array;
+        }
+    }
+
+    private static final class CollectionSerializer implements Serializer<Collection<Object>> {
+        private final Serializer<Object> elementSerializer;
+        private final Supplier<Collection<Object>> factory;
+        private final Function<Collection<Object>, Collection<Object>> finisher;
+
+        @SuppressWarnings("unchecked")
+        private CollectionSerializer(Serializer<?> elementSerializer, Supplier<Collection<Object>> factory, Function<Collection<Object>, Collection<Object>> finisher) {
+            this.elementSerializer = (Serializer<Object>) elementSerializer;
+            this.factory = factory;
+            this.finisher = finisher;
+        }
+
+        @Override
+        public void write(Writer out, Collection<Object> value) {
+            out.writeVarInt(value.size());
+            for (Object element : value) {
+                this.elementSerializer.write(out, element);
+            }
+        }
+
+        @Override
+        public Collection<Object> read(Reader in) {
+            int size = in.readLength();
+            Collection<Object> collection = this.factory.get();
+            for (int i = 0; i < size; i++) {
+                collection.add(this.elementSerializer.read(in));
+            }
+            return this.finisher.apply(collection);
+        }
+    }
+
+    private static final class MapSerializer implements Serializer<Map<Object, Object>> {
+        private final Serializer<Object> keySerializer;
+        private final Serializer<Object> valueSerializer;
+        private final Supplier<Map<Object, Object>> factory;
+        private final Function<Map<Object, Object>, Map<Object, Object>> finisher;
+
+        @SuppressWarnings("unchecked")
+        private MapSerializer(Serializer<?> keySerializer, Serializer<?> valueSerializer, Supplier<Map<Object, Object>> factory, Function<Map<Object, Object>, Map<Object, Object>> finisher) {
+            this.keySerializer = (Serializer<Object>) keySerializer;
+            this.valueSerializer = (Serializer<Object>) valueSerializer;
+            this.factory = factory;
+            this.finisher = finisher;
+        }
+
+        @Override
+        public void write(Writer out, Map<Object, Object> value) {
+            out.writeVarInt(value.size());
+            for (Map.Entry<Object, Object> entry : value.entrySet()) {
+                this.keySerializer.write(out, entry.getKey());
+                this.valueSerializer.write(out, entry.getValue());
+            }
+        }
+
+        @Override
+        public Map<Object, Object> read(Reader in) {
+            int size = in.readLength();
+            Map<Object, Object> map = this.factory.get();
+            for (int i = 0; i < size; i++) {
+                map.put(this.keySerializer.read(in), this.valueSerializer.read(in));
+            }
+            return this.finisher.apply(map);
+        }
+    }
+
+    /**
+     * Writes the fields of an object in a fixed order.
+     */
+    private static final class ObjectSerializer<T> implements Serializer<T> {
+        private final Class<? super T> type;
+        private final Supplier<Object> factory;
+        private final FieldBinding[] fields;
+
+        private ObjectSerializer(TypeToken<T> type) {
+            this.type = type.getRawType();
+            Supplier<Object> factory = constructorFactory(this.type);
+            this.factory = factory != null ? factory : () -> UnsafeAllocator.allocate(this.type);
+
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> c = this.type; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+
+            List<FieldBinding> fields = new ArrayList<>();
+            for (Class<?> c : hierarchy) {
+                Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, Comparator.comparing(Field::getName));
+                for (Field field : declared) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(FieldBinding.of(field, type.resolveType(field.getGenericType())));
+                }
+            }
+            this.fields = fields.toArray(new FieldBinding[0]);
+        }
+
+        @Override
+        public void write(Writer out, T value) {
+            try {
+                for (FieldBinding field : this.fields) {
+                    field.write(out, value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new EncodingException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T read(Reader in) {
+            Object value = this.factory.get();
+            try {
+                for (FieldBinding field : this.fields) {
+                    field.read(in, value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new EncodingException(e);
+            }
+            return (T) value;
+        }
+    }
+
+    /**
+     * Reads and writes the value of a single field, avoiding boxing for primitives.
+     */
+    private static abstract class FieldBinding {
+        protected final Field field;
+
+        private FieldBinding(Field field) {
+            this.field = field;
+        }
+
+        abstract void write(Writer out, Object owner) throws IllegalAccessException;
+
+        abstract void read(Reader in, Object owner) throws IllegalAccessException;
+
+        static FieldBinding of(Field field, TypeToken<?> type) {
+            Class<?> raw = field.getType();
+            if (raw == int.class) {
+                return new FieldBinding(field) {
+                    @Override void write(Writer out, Object owner) throws IllegalAccessException { out.writeSignedVarInt(this.field.getInt(owner)); }
+                    @Override void read(Reader in, Object owner) throws IllegalAccessException { this.field.setInt(owner, in.readSignedVarInt()); }
+                };
+            }
+            if (raw == long.class) {
+                return new FieldBinding(field) {
+                    @Override void write(Writer out, Object owner) throws IllegalAccessException { out.writeSignedVarLong(this.field.getLong(owner)); }
+                    @Override void read(Reader in, Object owner) throws IllegalAccessException { this.field.setLong(owner, in.readSignedVarLong()); }
+                };
+            }
+            if (raw == double.class) {
+                return new FieldBinding(field) {
+                    @Override void write(Writer out, Object owner) throws IllegalAccessException { out.writeLong(Double.doubleToLongBits(this.field.getDouble(owner))); }
+                    @Override void read(Reader in, Object owner) throws IllegalAccessException { this.field.setDouble(owner, Double.longBitsToDouble(in.readLong())); }
+                };
+            }
+            if (raw == boolean.class) {
+                return new FieldBinding(field) {
+                    @Override void write(Writer out, Object owner) throws IllegalAccessException { out.writeBoolean(this.field.getBoolean(owner)); }
+                    @Override void read(Reader in, Object owner) throws IllegalAccessException { this.field.setBoolean(owner, in.readBoolean()); }
+                };
+            }
+
+            // remaining primitives are rare enough to go through the boxed serializers
+            Serializer<Object> serializer = unchecked(raw.isPrimitive() ? create(type) : new LazySerializer<>(type));
+            return new FieldBinding(field) {
+                @Override void write(Writer out, Object owner) throws IllegalAccessException { serializer.write(out, this.field.get(owner)); }
+                @Override void read(Reader in, Object owner) throws IllegalAccessException { this.field.set(owner, serializer.read(in)); }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Serializer<Object> unchecked(Serializer<?> serializer) {
+            return (Serializer<Object>) serializer;
+        }
+    }
+
+    /**
+     * Creates instances of classes which don't have a no-args constructor.
+     */
+    private static final class UnsafeAllocator {
+        private static final Object UNSAFE;
+        private static final Method ALLOCATE_INSTANCE;
+
+        static {
+            Object unsafe = null;
+            Method allocateInstance = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+                allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // unavailable
+            }
+            UNSAFE = unsafe;
+            ALLOCATE_INSTANCE = allocateInstance;
+        }
+
+        static Object allocate(Class<?> type) {
+            if (ALLOCATE_INSTANCE == null) {
+                throw new EncodingException("Unable to construct " + type.getName() + ": no no-args constructor");
+            }
+            try {
+                return ALLOCATE_INSTANCE.invoke(UNSAFE, type);
+            } catch (ReflectiveOperationException e) {
+                throw new EncodingException("Unable to construct " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * A growable output buffer.
+     */
+    static final class Writer {
+        private byte[] buf;
+        private int length = 0;
+
+        Writer(int initialCapacity) {
+            this.buf = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(int extra) {
+            if (this.length + extra > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.length + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buf, this.length);
+        }
+
+        void writeByte(byte value) {
+            ensureCapacity(1);
+            this.buf[this.length++] = value;
+        }
+
+        void writeBoolean(boolean value) {
+            writeByte(value ? (byte) 1 : (byte) 0);
+        }
+
+        void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, this.buf, this.length, value.length);
+            this.length += value.length;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            this.buf[this.length++] = (byte) (value >>> 24);
+            this.buf[this.length++] = (byte) (value >>> 16);
+            this.buf[this.length++] = (byte) (value >>> 8);
+            this.buf[this.length++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                this.buf[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buf[this.length++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buf[this.length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buf[this.length++] = (byte) value;
+        }
+
+        void writeSignedVarInt(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+
+    /**
+     * Reads from an input buffer.
+     */
+    static final class Reader {
+        private final byte[] buf;
+        private int position = 0;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            if (this.position >= this.buf.length) {
+                throw new EncodingException("Unexpected end of message");
+            }
+            return this.buf[this.position++];
+        }
+
+        boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        byte[] readBytes(int length) {
+            if (length < 0 || length > this.buf.length - this.position) {
+                throw new EncodingException("Unexpected end of message");
+            }
+            byte[] bytes = Arrays.copyOfRange(this.buf, this.position, this.position + length);
+            this.position += length;
+            return bytes;
+        }
+
+        int readInt() {
+            return ((readByte() & 0xFF) << 24) | ((readByte() & 0xFF) << 16) | ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new EncodingException("VarInt too long");
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new EncodingException("VarLong too long");
+        }
+
+        int readSignedVarInt() {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a collection length, checking it against the remaining input so that
+         * malformed messages can't trigger huge allocations.
+         *
+         * @return the length
+         */
+        int readLength() {
+            int length = readVarInt();
+            if (length < 0 || length > this.buf.length - this.position) {
+                throw new EncodingException("Invalid length: " + length);
+            }
+            return length;
+        }
+
+        String readString() {
+            return new String(readBytes(readVarInt()), StandardCharsets.UTF_8);
+        }
+    }
+
+    private BinarySerializers() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.codec;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link Codec} wrapper which compresses the encoded form of messages.
+ *
+ * <p>Every encoded message is prefixed by a single header byte identifying how it was
+ * compressed, so decoding does not depend on the compression settings of the sender.
+ * GZip output is left unprefixed, as it can be identified by the GZip magic number -
+ * this keeps it readable by nodes using the plain {@link GZipCodec}. For the same reason,
+ * GZip messages below the threshold are written as GZip streams using stored (uncompressed)
+ * blocks, rather than with the uncompressed header.</p>
+ *
+ * <p>The uncompressed length declared by a message is checked against the size of the
+ * compressed input before any buffer is allocated, and is limited to
+ * <code>helper.messaging.max-uncompressed-size</code> bytes (64MB by default).</p>
+ *
+ * @param <M> the message type
+ */
+public class CompressedCodec<M> implements Codec<M> {
+    private static final byte HEADER_NONE = 0x00;
+    private static final byte HEADER_DEFLATE = 0x01;
+    private static final byte HEADER_LZF = 0x02;
+    private static final byte GZIP_MAGIC_1 = (byte) 0x1f;
+    private static final byte GZIP_MAGIC_2 = (byte) 0x8b;
+
+    // the fixed header written by java.util.zip.GZIPOutputStream
+    private static final byte[] GZIP_HEADER = new byte[]{GZIP_MAGIC_1, GZIP_MAGIC_2, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final int MAX_STORED_BLOCK = 0xFFFF;
+
+    private static final int MAX_UNCOMPRESSED_LENGTH = Integer.getInteger("helper.messaging.max-uncompressed-size", 64 * 1024 * 1024);
+
+    // the maximum ratio of uncompressed to compressed size achievable by deflate
+    private static final int DEFLATE_MAX_EXPANSION = 1032;
+
+    // deflaters & inflaters hold native resources, so are reused rather than created per message
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final Codec<M> delegate;
+    private final Compression compression;
+    private final int threshold;
+
+    /**
+     * Creates a new compressed codec.
+     *
+     * @param delegate the codec to compress the output of
+     * @param compression the compression method
+     * @param threshold the size in bytes below which messages are not compressed
+     */
+    public CompressedCodec(Codec<M> delegate, Compression compression, int threshold) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.compression = Objects.requireNonNull(compression, "compression");
+        this.threshold = threshold;
+    }
+
+    public CompressedCodec(Codec<M> delegate, Compression compression) {
+        this(delegate, compression, 0);
+    }
+
+    public Codec<M> getDelegate() {
+        return this.delegate;
+    }
+
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    @Override
+    public byte[] encode(M message) throws EncodingException {
+        byte[] in = this.delegate.encode(message);
+
+        Compression compression = this.compression;
+        if (in.length < this.threshold) {
+            // older nodes can only read gzip, so keep to the gzip format
+            if (compression == Compression.GZIP) {
+                return gzipStored(in);
+            }
+            compression = Compression.NONE;
+        }
+
+        switch (compression) {
+            case NONE: {
+                byte[] out = new byte[in.length + 1];
+                out[0] = HEADER_NONE;
+                System.arraycopy(in, 0, out, 1, in.length);
+                return out;
+            }
+            case GZIP:
+                return gzip(in);
+            case DEFLATE: {
+                byte[] out = new byte[5 + deflateBound(in.length)];
+                out[0] = HEADER_DEFLATE;
+                writeInt(out, 1, in.length);
+                int length = deflate(in, out, 5);
+                return Arrays.copyOf(out, length);
+            }
+            case LZF: {
+                byte[] out = new byte[5 + Lzf.maxCompressedLength(in.length)];
+                out[0] = HEADER_LZF;
+                writeInt(out, 1, in.length);
+                int length = Lzf.compress(in, out, 5);
+                return Arrays.copyOf(out, length);
+            }
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Override
+    public M decode(byte[] buf) throws EncodingException {
+        if (buf.length == 0) {
+            throw new EncodingException("Empty message");
+        }
+
+        byte[] uncompressed;
+        if (buf.length >= 2 && buf[0] == GZIP_MAGIC_1 && buf[1] == GZIP_MAGIC_2) {
+            uncompressed = gunzip(buf);
+        } else {
+            switch (buf[0]) {
+                case HEADER_NONE:
+                    uncompressed = Arrays.copyOfRange(buf, 1, buf.length);
+                    break;
+                case HEADER_DEFLATE:
+                    uncompressed = inflate(buf, 5, buf.length - 5, readInt(buf, 1));
+                    break;
+                case HEADER_LZF: {
+                    int length = readInt(buf, 1);
+                    checkUncompressedLength(length);
+                    uncompressed = Lzf.decompress(buf, 5, length);
+                    break;
+                }
+                default:
+                    throw new EncodingException("Unknown compression header: " + buf[0]);
+            }
+        }
+        return this.delegate.decode(uncompressed);
+    }
+
+    private static byte[] gzip(byte[] in) {
+        byte[] out = new byte[GZIP_HEADER.length + deflateBound(in.length) + GZIP_TRAILER_LENGTH];
+        System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+        int length = deflate(in, out, GZIP_HEADER.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(in, 0, in.length);
+        writeIntLE(out, length, (int) crc.getValue());
+        writeIntLE(out, length + 4, in.length);
+        return Arrays.copyOf(out, length + GZIP_TRAILER_LENGTH);
+    }
+
+    // writes a gzip stream using stored blocks, which can be read by any gzip decoder
+    private static byte[] gzipStored(byte[] in) {
+        int blocks = Math.max(1, (in.length + MAX_STORED_BLOCK - 1) / MAX_STORED_BLOCK);
+        byte[] out = new byte[GZIP_HEADER.length + in.length + (blocks * 5) + GZIP_TRAILER_LENGTH];
+        System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+
+        int op = GZIP_HEADER.length;
+        int ip = 0;
+        do {
+            int length = Math.min(MAX_STORED_BLOCK, in.length - ip);
+            out[op++] = (byte) (ip + length == in.length ? 1 : 0); // BFINAL, BTYPE=00
+            out[op++] = (byte) length;
+            out[op++] = (byte) (length >>> 8);
+            out[op++] = (byte) ~length;
+            out[op++] = (byte) (~length >>> 8);
+            System.arraycopy(in, ip, out, op, length);
+            op += length;
+            ip += length;
+        } while (ip < in.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(in, 0, in.length);
+        writeIntLE(out, op, (int) crc.getValue());
+        writeIntLE(out, op + 4, in.length);
+        return out;
+    }
+
+    private static byte[] gunzip(byte[] buf) {
+        // fast path for headers without optional fields, as written by GZIPOutputStream and #gzip
+        if (buf.length >= GZIP_HEADER.length + GZIP_TRAILER_LENGTH && buf[2] == Deflater.DEFLATED && buf[3] == 0) {
+            int trailer = buf.length - GZIP_TRAILER_LENGTH;
+            int length = readIntLE(buf, trailer + 4);
+            byte[] out = inflate(buf, GZIP_HEADER.length, trailer - GZIP_HEADER.length, length);
+
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, out.length);
+            if ((int) crc.getValue() != readIntLE(buf, trailer)) {
+                throw new EncodingException("Corrupt GZip data: CRC mismatch");
+            }
+            return out;
+        }
+
+        try (GZIPInputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(buf))) {
+            // grows as it inflates, but stop once the limit has been exceeded
+            byte[] out = ByteStreams.toByteArray(ByteStreams.limit(gzipIn, MAX_UNCOMPRESSED_LENGTH + 1L));
+            checkUncompressedLength(out.length);
+            return out;
+        } catch (IOException e) {
+            throw new EncodingException(e);
+        }
+    }
+
+    private static int deflateBound(int length) {
+        // same as zlib's deflateBound for raw deflate streams
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    private static int deflate(byte[] in, byte[] out, int offset) {
+        Deflater deflater = DEFLATER.get();
+        try {
+            deflater.setInput(in);
+            deflater.finish();
+            int length = offset;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    throw new EncodingException("Deflate output exceeded bound");
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return length;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static byte[] inflate(byte[] buf, int offset, int length, int uncompressedLength) {
+        // the length is read from the input, so check it is achievable before allocating
+        checkUncompressedLength(uncompressedLength);
+        if (uncompressedLength > (long) length * DEFLATE_MAX_EXPANSION) {
+            throw new EncodingException("Invalid uncompressed length: " + uncompressedLength);
+        }
+
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(buf, offset, length);
+            byte[] out = new byte[uncompressedLength];
+            int read = 0;
+            while (read < out.length && !inflater.finished()) {
+                int n = inflater.inflate(out, read, out.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != out.length) {
+                throw new EncodingException("Inflated length mismatch: expected " + out.length + " but got " + read);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new EncodingException(e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static void checkUncompressedLength(int length) {
+        if (length < 0 || length > MAX_UNCOMPRESSED_LENGTH) {
+            throw new EncodingException("Invalid uncompressed length: " + length + " (maximum is " + MAX_UNCOMPRESSED_LENGTH + ")");
+        }
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        if (buf.length < offset + 4) {
+            throw new EncodingException("Message too short");
+        }
+        return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16) | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+    }
+
+    private static void writeIntLE(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readIntLE(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) | ((buf[offset + 1] & 0xFF) << 8) | ((buf[offset + 2] & 0xFF) << 16) | ((buf[offset + 3] & 0xFF) << 24);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompressedCodec<?> other = (CompressedCodec<?>) o;
+        return this.threshold == other.threshold && this.compression == other.compression && this.delegate.equals(other.delegate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.delegate, this.compression, this.threshold);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.codec;
+
+/**
+ * The compression methods supported by {@link CompressedCodec}.
+ */
+public enum Compression {
+
+    /**
+     * Messages are not compressed.
+     */
+    NONE,
+
+    /**
+     * Messages are compressed using GZip.
+     *
+     * <p>This is the default, and the only method understood by versions of helper
+     * which predate {@link CompressedCodec}.</p>
+     */
+    GZIP,
+
+    /**
+     * Messages are compressed using raw Deflate.
+     *
+     * <p>Produces slightly smaller output than {@link #GZIP}, and avoids the per message
+     * stream allocations.</p>
+     */
+    DEFLATE,
+
+    /**
+     * Messages are compressed using a fast LZ77 variant (LZF).
+     *
+     * <p>Compresses less than {@link #DEFLATE}, but is significantly cheaper to encode
+     * and decode.</p>
+     */
+    LZF
+
+}
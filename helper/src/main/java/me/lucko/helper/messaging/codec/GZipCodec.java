@@ -67,4 +67,16 @@ public class GZipCodec<M> implements Codec<M> {
         }
         return this.delegate.decode(uncompressed);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return this.delegate.equals(((GZipCodec<?>) o).delegate);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.delegate.hashCode();
+    }
 }
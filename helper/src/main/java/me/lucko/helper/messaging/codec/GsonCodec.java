@@ -38,6 +38,7 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
 /**
  * Implementation of {@link Codec} using {@link Gson}.
@@ -77,4 +78,17 @@ public class GsonCodec<M> implements Codec<M> {
             throw new EncodingException(e);
         }
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GsonCodec<?> other = (GsonCodec<?>) o;
+        return this.gson == other.gson && this.type.equals(other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(this.gson), this.type);
+    }
 }
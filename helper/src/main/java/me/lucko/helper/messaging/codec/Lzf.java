@@ -0,0 +1,189 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.codec;
+
+import java.util.Arrays;
+
+/**
+ * An implementation of the LZF compression format.
+ *
+ * <p>The compressed form is a sequence of chunks, each starting with a control byte.
+ * Control bytes below 32 are followed by a run of (control + 1) literal bytes.
+ * Otherwise, the chunk is a back reference - the top 3 bits of the control byte
+ * hold the match length (minus 2, extended by a further byte if 7), and the bottom
+ * 5 bits plus the next byte hold the distance back to the match (minus 1).</p>
+ */
+final class Lzf {
+    private static final int HASH_BITS = 14;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_MATCH = 264;
+
+    /**
+     * The maximum ratio of decompressed to compressed size - a back reference of
+     * {@link #MAX_MATCH} bytes is encoded in 3 bytes.
+     */
+    static final int MAX_EXPANSION = MAX_MATCH / 3;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    /**
+     * Gets the maximum size of the compressed form of an input of the given length.
+     *
+     * @param length the input length
+     * @return the maximum compressed length
+     */
+    static int maxCompressedLength(int length) {
+        return length + (length / MAX_LITERAL) + 1;
+    }
+
+    /**
+     * Compresses the input into the output buffer.
+     *
+     * @param in the input
+     * @param out the output buffer, at least {@link #maxCompressedLength(int)} bytes from the offset
+     * @param outOffset the offset to start writing at
+     * @return the index after the last byte written
+     */
+    static int compress(byte[] in, byte[] out, int outOffset) {
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+
+        int length = in.length;
+        int ip = 0;
+        int op = outOffset;
+        int literalStart = 0;
+
+        while (ip + 2 < length) {
+            int hash = hash(in, ip);
+            int ref = table[hash];
+            table[hash] = ip;
+
+            int distance = ip - ref - 1;
+            if (ref >= 0 && distance < MAX_OFFSET && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+                int max = Math.min(MAX_MATCH, length - ip);
+                int match = 3;
+                while (match < max && in[ref + match] == in[ip + match]) {
+                    match++;
+                }
+
+                op = writeLiterals(in, literalStart, ip, out, op);
+
+                int len = match - 2;
+                if (len < 7) {
+                    out[op++] = (byte) ((len << 5) | (distance >>> 8));
+                } else {
+                    out[op++] = (byte) ((7 << 5) | (distance >>> 8));
+                    out[op++] = (byte) (len - 7);
+                }
+                out[op++] = (byte) distance;
+
+                ip += match;
+                literalStart = ip;
+            } else {
+                ip++;
+            }
+        }
+
+        return writeLiterals(in, literalStart, length, out, op);
+    }
+
+    private static int writeLiterals(byte[] in, int from, int to, byte[] out, int op) {
+        while (from < to) {
+            int run = Math.min(MAX_LITERAL, to - from);
+            out[op++] = (byte) (run - 1);
+            System.arraycopy(in, from, out, op, run);
+            op += run;
+            from += run;
+        }
+        return op;
+    }
+
+    /**
+     * Decompresses the input.
+     *
+     * @param in the input buffer
+     * @param inOffset the offset of the compressed form in the input buffer
+     * @param length the length of the decompressed form
+     * @return the decompressed bytes
+     * @throws EncodingException if the input is malformed
+     */
+    static byte[] decompress(byte[] in, int inOffset, int length) throws EncodingException {
+        // the length is read from the input, so check it is achievable before allocating
+        if (length < 0 || length > (long) (in.length - inOffset) * MAX_EXPANSION) {
+            throw new EncodingException("Invalid decompressed length: " + length);
+        }
+
+        byte[] out = new byte[length];
+        int ip = inOffset;
+        int op = 0;
+
+        try {
+            while (ip < in.length) {
+                int ctrl = in[ip++] & 0xFF;
+                if (ctrl < MAX_LITERAL) {
+                    int run = ctrl + 1;
+                    System.arraycopy(in, ip, out, op, run);
+                    ip += run;
+                    op += run;
+                } else {
+                    int len = ctrl >>> 5;
+                    if (len == 7) {
+                        len += in[ip++] & 0xFF;
+                    }
+                    len += 2;
+
+                    int ref = op - ((ctrl & 0x1F) << 8) - (in[ip++] & 0xFF) - 1;
+                    if (ref < 0) {
+                        throw new EncodingException("Invalid back reference");
+                    }
+
+                    // byte by byte, as the match may overlap the bytes being written
+                    for (int i = 0; i < len; i++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new EncodingException("Malformed LZF input", e);
+        }
+
+        if (op != length) {
+            throw new EncodingException("Decompressed length mismatch: expected " + length + " but got " + op);
+        }
+        return out;
+    }
+
+    private static int hash(byte[] in, int i) {
+        int v = ((in[i] & 0xFF) << 16) | ((in[i + 1] & 0xFF) << 8) | (in[i + 2] & 0xFF);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private Lzf() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+}
@@ -31,6 +31,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Configures how a message type is encoded when sent over a {@link me.lucko.helper.messaging.Channel}.
+ */
 @Documented
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
@@ -39,8 +42,40 @@ public @interface Message {
     /**
      * Gets the codec used by this message.
      *
+     * <p>Codecs are constructed using a constructor accepting the message's
+     * {@link com.google.common.reflect.TypeToken}, if present, otherwise a no-args
+     * constructor. Defaults to a {@link GsonCodec} for the message type.</p>
+     *
      * @return the codec
      */
-    Class<? extends Codec<?>> codec();
+    Class<? extends Codec<?>> codec() default DefaultCodec.class;
+
+    /**
+     * Gets the compression applied to the output of the {@link #codec()}.
+     *
+     * <p>Nodes running versions of helper which predate this option are only able
+     * to decode messages compressed using {@link Compression#GZIP}.</p>
+     *
+     * @return the compression
+     */
+    Compression compression() default Compression.GZIP;
+
+    /**
+     * Gets the size in bytes below which encoded messages are not compressed.
+     *
+     * <p>With {@link Compression#GZIP}, messages below the threshold are still
+     * written in the GZip format (using uncompressed blocks), so they remain readable
+     * by nodes running older versions of helper.</p>
+     *
+     * @return the compression threshold
+     */
+    int compressionThreshold() default 0;
+
+    /**
+     * Marker used by {@link #codec()} to indicate that the default codec should be used.
+     */
+    interface DefaultCodec extends Codec<Object> {
+
+    }
 
 }
@@ -35,15 +35,14 @@ import me.lucko.helper.messaging.ChannelAgent;
 import me.lucko.helper.messaging.ChannelListener;
 import me.lucko.helper.messaging.Messenger;
 import me.lucko.helper.promise.Promise;
+import me.lucko.helper.scheduler.HashedWheelTimer;
+import me.lucko.helper.scheduler.HelperExecutors;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
@@ -61,7 +60,6 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
 
     private final Set<Agent<T, R>> agents = ConcurrentHashMap.newKeySet();
 
-    private final ScheduledExecutorService replyTimeoutExecutor = Executors.newSingleThreadScheduledExecutor();
     private final ChannelAgent<R> replyAgent;
     private final SetMultimap<UUID, ReplyListenerRegistration<R>> replyListeners = Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet);
 
@@ -81,15 +79,16 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
     }
 
     private static final class ReplyListenerRegistration<R extends ConversationMessage> {
+        private final UUID conversationId;
         private final ConversationReplyListener<R> listener;
         private final List<R> replies = new ArrayList<>();
-        private ScheduledFuture<?> timeoutFuture;
+        private HashedWheelTimer.Timeout timeout;
 
         private boolean active = true;
 
-        private ReplyListenerRegistration(ConversationReplyListener<R> listener) {
+        private ReplyListenerRegistration(UUID conversationId, ConversationReplyListener<R> listener) {
+            this.conversationId = conversationId;
             this.listener = listener;
-
         }
 
         /**
@@ -111,7 +110,7 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
 
                     // unregister
                     this.active = false;
-                    this.timeoutFuture.cancel(false);
+                    this.timeout.cancel();
 
                     return true;
                 } else {
@@ -120,7 +119,7 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
             }
         }
 
-        public void timeout() {
+        public void timeout(SetMultimap<UUID, ReplyListenerRegistration<R>> replyListeners) {
             synchronized (this) {
                 if (!this.active) {
                     return;
@@ -129,6 +128,14 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
                 this.listener.onTimeout(this.replies);
                 this.active = false;
             }
+            replyListeners.remove(this.conversationId, this);
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                this.active = false;
+                this.timeout.cancel();
+            }
         }
     }
 
@@ -162,18 +169,30 @@ public class SimpleConversationChannel<T extends ConversationMessage, R extends
     @Override
     public Promise<Void> sendMessage(@Nonnull T message, @Nonnull ConversationReplyListener<R> replyListener, long timeoutDuration, @Nonnull TimeUnit unit) {
         // register the listener
-        ReplyListenerRegistration<R> listenerRegistration = new ReplyListenerRegistration<>(replyListener);
-        listenerRegistration.timeoutFuture = this.replyTimeoutExecutor.schedule(listenerRegistration::timeout, timeoutDuration, unit);
-        this.replyListeners.put(message.getConversationId(), listenerRegistration);
+        ReplyListenerRegistration<R> listenerRegistration = new ReplyListenerRegistration<>(message.getConversationId(), replyListener);
+        synchronized (listenerRegistration) {
+            this.replyListeners.put(message.getConversationId(), listenerRegistration);
+            listenerRegistration.timeout = HelperExecutors.timer().newTimeout(() -> listenerRegistration.timeout(this.replyListeners), timeoutDuration, unit);
+        }
 
         // send the outgoing message
         return this.outgoingChannel.sendMessage(message);
     }
 
+    /**
+     * Gets the number of conversations which are waiting for replies.
+     *
+     * @return the number of outstanding conversations
+     */
+    public int getPendingReplyCount() {
+        return this.replyListeners.size();
+    }
+
     @Override
     public void close() {
         this.replyAgent.close();
-        this.replyTimeoutExecutor.shutdown();
+        this.replyListeners.values().forEach(ReplyListenerRegistration::cancel);
+        this.replyListeners.clear();
         this.agents.forEach(Agent::close);
     }
 
@@ -26,6 +26,7 @@
 package me.lucko.helper.messaging.http;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.common.reflect.TypeToken;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -35,7 +36,15 @@ import me.lucko.helper.Schedulers;
 import me.lucko.helper.messaging.AbstractMessenger;
 import me.lucko.helper.messaging.Channel;
 import me.lucko.helper.messaging.Messenger;
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.scheduler.HelperExecutors;
+import me.lucko.helper.utils.Log;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,9 +55,19 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Proof of concept {@link Messenger} implementation using the HTTP protocol.
@@ -56,14 +75,41 @@ import javax.annotation.Nonnull;
  * <p>Unlike the helper-redis implementation, this class can only facilitate the communication
  * between two clients at a time. However, unlike redis, the connection is direct.</p>
  *
- * <p>The messenger works by sending/receiving HTTP POST requests. It is a simple (not necessarily
- * the most efficient) implementation, which could be quite easily optimised if necessary - pooling
- * connections would be a start!</p>
+ * <p>The messenger works by sending/receiving HTTP POST requests. Outgoing messages are added
+ * to a bounded queue, and sent in batches: each request body contains as many queued messages
+ * as will fit in a batch, framed with their channel name and length. Connections to the remote
+ * server are kept alive between requests, and incoming request bodies are decoded as they are
+ * read. Messages in an incoming batch are only handled once the whole batch has been decoded.
+ * Failed requests are retried, so messages are delivered at least once. If the remote server
+ * is an older version which doesn't accept batches, each message is sent in its own request
+ * instead.</p>
+ *
+ * <p>The messenger can be tuned using the following system properties:</p>
+ * <ul>
+ *     <li><b>helper.http.queue-size</b> - the maximum number of messages waiting to be sent.
+ *     Messages sent while the queue is full fail immediately. Defaults to 10000.</li>
+ *     <li><b>helper.http.batch-size</b> - the maximum number of messages sent in one request.
+ *     Defaults to 256.</li>
+ *     <li><b>helper.http.max-message-size</b> - the maximum size in bytes of a message received
+ *     in a batch. Requests containing larger messages are rejected. Defaults to 64MB.</li>
+ *     <li><b>helper.http.retries</b> - the number of times a failed request is retried before
+ *     its messages are failed. Defaults to 3.</li>
+ * </ul>
  *
  * <p>Of course, a messenger using plain TCP sockets (optionally with a library like netty)
  * could work just as well.</p>
  */
 public class HttpMessenger implements Messenger {
+    private static final int QUEUE_SIZE = positiveProperty("helper.http.queue-size", 10000);
+    private static final int BATCH_SIZE = positiveProperty("helper.http.batch-size", 256);
+    private static final int MAX_MESSAGE_SIZE = positiveProperty("helper.http.max-message-size", 64 * 1024 * 1024);
+    private static final int RETRIES = Integer.getInteger("helper.http.retries", 3);
+    private static final long RETRY_DELAY_MILLIS = 100;
+
+    /** The path batched requests are sent to */
+    private static final String BATCH_PATH = "/helper:batch";
+    /** The version of the batch framing format */
+    private static final int BATCH_VERSION = 1;
 
     /** The abstract messenger implementation used as the basis for Channel construction and handling */
     private final AbstractMessenger messenger;
@@ -73,56 +119,285 @@ public class HttpMessenger implements Messenger {
     /** A factory which creates remote URLs for outgoing messages */
     private final Function<String, URL> remoteUrl;
 
+    /** The channels currently subscribed to */
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+
+    /** Messages waiting to be sent */
+    private final BlockingQueue<OutgoingMessage> outgoing = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    /** If a task is currently sending messages from the queue */
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+    /** If the remote server doesn't accept batches, and messages are sent to each channel's path */
+    private volatile boolean unbatchedRemote = false;
+
+    private static int positiveProperty(String property, int def) {
+        int value = Integer.getInteger(property, def);
+        if (value <= 0) {
+            Log.warn("[helper] Invalid value for " + property + ": " + value + ", using " + def);
+            return def;
+        }
+        return value;
+    }
+
     public HttpMessenger(String host, int port, String remoteHost, int remotePort) {
         this.messenger = new AbstractMessenger(this::handleOutgoing, this::subscribe, this::unsubscribe);
         try {
             this.httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
             this.httpServer.setExecutor(Schedulers.async());
+            this.httpServer.createContext(BATCH_PATH, new BatchHandler());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        this.remoteUrl = channel -> {
+        this.remoteUrl = path -> {
             try {
-                return new URL("http", remoteHost, remotePort, channel);
+                return new URL("http", remoteHost, remotePort, path);
             } catch (MalformedURLException e) {
                 throw new RuntimeException(e);
             }
         };
     }
 
-    private void handleOutgoing(String channel, byte[] message) {
-        // Handle outgoing messages: just send a HTTP POST request to the remote server.
+    private void handleOutgoing(String channel, byte[] message, Promise<Void> result) {
+        // Handle outgoing messages: queue the message, and make sure something is sending the queue.
+        if (!this.outgoing.offer(new OutgoingMessage(channel, message, result))) {
+            result.supplyException(new IOException("Outgoing message queue is full"));
+            return;
+        }
+        scheduleSend();
+    }
+
+    private void scheduleSend() {
+        if (this.sending.compareAndSet(false, true)) {
+            HelperExecutors.asyncHelper().execute(this::sendQueued);
+        }
+    }
+
+    private void sendQueued() {
+        // while a request is in flight, further messages build up in the queue and are sent together
+        List<OutgoingMessage> batch = new ArrayList<>(Math.min(BATCH_SIZE, 64));
+        while (this.outgoing.drainTo(batch, BATCH_SIZE) != 0) {
+            if (!sendBatch(batch, 0)) {
+                // the retry carries on sending the queue once it has finished with the batch
+                return;
+            }
+            batch.clear();
+        }
+        this.sending.set(false);
+
+        // handle messages queued after the last drain but before the flag was cleared
+        if (!this.outgoing.isEmpty()) {
+            scheduleSend();
+        }
+    }
+
+    /**
+     * Attempts to send the batch, scheduling a retry if it fails.
+     *
+     * @return false if a retry has been scheduled
+     */
+    private boolean sendBatch(List<OutgoingMessage> batch, int attempt) {
         try {
-            HttpURLConnection connection = (HttpURLConnection) this.remoteUrl.apply(encodeChannel(channel)).openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoInput(false);
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-
-            connection.connect();
-            try (OutputStream out = connection.getOutputStream()) {
-                out.write(message);
+            send(batch);
+        } catch (IOException | RuntimeException e) {
+            if (attempt < RETRIES) {
+                // schedule the retry rather than sleeping, so a pool thread isn't held while waiting
+                HelperExecutors.asyncHelper().schedule(() -> {
+                    if (sendBatch(batch, attempt + 1)) {
+                        sendQueued();
+                    }
+                }, RETRY_DELAY_MILLIS << attempt, TimeUnit.MILLISECONDS);
+                return false;
+            }
+
+            IOException failure = new IOException("Unable to send " + batch.size() + " message(s) after " + (attempt + 1) + " attempts", e);
+            failure.printStackTrace();
+            for (OutgoingMessage message : batch) {
+                message.result.supplyException(failure);
             }
+            return true;
+        }
+
+        for (OutgoingMessage message : batch) {
+            message.result.supply(null);
+        }
+        return true;
+    }
 
-            if (connection.getResponseCode() >= 400) {
-                throw new IOException("Response code: " + connection.getResponseCode() + " - " + connection.getResponseMessage());
+    private void send(List<OutgoingMessage> batch) throws IOException {
+        if (!this.unbatchedRemote) {
+            int responseCode = post(BATCH_PATH, encodeBatch(batch));
+            if (responseCode != HttpURLConnection.HTTP_NOT_FOUND) {
+                checkResponse(responseCode);
+                return;
             }
 
-            connection.disconnect();
-        } catch (IOException e) {
-            e.printStackTrace();
+            // the remote server is an older version which doesn't accept batches
+            this.unbatchedRemote = true;
+            Log.warn("[helper] Remote server " + this.remoteUrl.apply("/") + " doesn't accept batched messages, sending them individually");
+        }
+
+        // send each message to its channel's path. messages which have been sent are removed
+        // from the batch, so they aren't sent again if the batch is retried
+        for (Iterator<OutgoingMessage> it = batch.iterator(); it.hasNext(); ) {
+            OutgoingMessage message = it.next();
+            int responseCode = post(encodeChannel(message.channel), message.message);
+
+            // not found means the remote server isn't subscribed to the channel
+            if (responseCode != HttpURLConnection.HTTP_NOT_FOUND) {
+                checkResponse(responseCode);
+            }
+
+            message.result.supply(null);
+            it.remove();
+        }
+    }
+
+    private int post(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) this.remoteUrl.apply(path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setFixedLengthStreamingMode(body.length);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        // the response is read fully and not disconnected, so that the connection can be reused
+        int responseCode = connection.getResponseCode();
+        InputStream response = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (response != null) {
+            try (InputStream in = response) {
+                ByteStreams.exhaust(in);
+            }
+        }
+        return responseCode;
+    }
+
+    private static void checkResponse(int responseCode) throws IOException {
+        if (responseCode >= 400) {
+            throw new IOException("Response code: " + responseCode);
+        }
+    }
+
+    private static byte[] encodeBatch(List<OutgoingMessage> batch) throws IOException {
+        int size = 5;
+        for (OutgoingMessage message : batch) {
+            size += message.channel.length() + 6 + message.message.length;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BATCH_VERSION);
+        out.writeInt(batch.size());
+        for (OutgoingMessage message : batch) {
+            out.writeUTF(message.channel);
+            out.writeInt(message.message.length);
+            out.write(message.message);
         }
+        return bytes.toByteArray();
     }
 
     // Subscribe and unsubscribe from channels by creating the corresponding handler context on the server.
+    // Batched messages are checked against the subscribed set, the per channel contexts accept
+    // unbatched messages from older versions.
     private void subscribe(String channel) {
+        this.subscribed.add(channel);
         this.httpServer.createContext(encodeChannel(channel), new Handler(channel));
     }
 
     private void unsubscribe(String channel) {
+        this.subscribed.remove(channel);
         this.httpServer.removeContext(encodeChannel(channel));
     }
 
+    /**
+     * Incoming handler for batched POST requests
+     */
+    private final class BatchHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("POST")) {
+                throw new UnsupportedEncodingException("Unsupported request: " + exchange.getRequestMethod());
+            }
+
+            try {
+                List<IncomingMessage> batch;
+                CountingInputStream body = new CountingInputStream(new BufferedInputStream(exchange.getRequestBody()));
+                try (DataInputStream in = new DataInputStream(body)) {
+                    batch = readBatch(in, body, getContentLength(exchange));
+                } catch (EOFException e) {
+                    batch = null;
+                }
+
+                // a malformed batch is rejected as a whole, as the sender will retry all of it
+                if (batch != null) {
+                    for (IncomingMessage message : batch) {
+                        // forward to the abstract Messenger impl
+                        HttpMessenger.this.messenger.registerIncomingMessage(message.channel, message.message);
+                    }
+                }
+
+                exchange.sendResponseHeaders(batch != null ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_BAD_REQUEST, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Decodes the messages in the batch as it is read, skipping those for channels
+         * which aren't subscribed to.
+         *
+         * @return the decoded messages, or null if the batch is malformed
+         */
+        @Nullable
+        private List<IncomingMessage> readBatch(DataInputStream in, CountingInputStream body, long contentLength) throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != BATCH_VERSION) {
+                return null;
+            }
+
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+
+            List<IncomingMessage> batch = new ArrayList<>(Math.min(count, BATCH_SIZE));
+            for (int i = 0; i < count; i++) {
+                String channel = in.readUTF();
+                int length = in.readInt();
+
+                // check the length against what's left of the body before allocating for it
+                if (length < 0 || length > MAX_MESSAGE_SIZE || (contentLength >= 0 && length > contentLength - body.getCount())) {
+                    return null;
+                }
+
+                if (!HttpMessenger.this.subscribed.contains(channel)) {
+                    ByteStreams.skipFully(in, length);
+                    continue;
+                }
+
+                byte[] message = new byte[length];
+                in.readFully(message);
+                batch.add(new IncomingMessage(channel, message));
+            }
+            return batch;
+        }
+    }
+
+    private static long getContentLength(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Incoming handler for POST requests
      */
@@ -148,8 +423,30 @@ public class HttpMessenger implements Messenger {
             // forward to the abstract Messenger impl
             HttpMessenger.this.messenger.registerIncomingMessage(this.channelName, message);
 
-            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
-            exchange.getResponseBody().close();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+            exchange.close();
+        }
+    }
+
+    private static final class IncomingMessage {
+        private final String channel;
+        private final byte[] message;
+
+        private IncomingMessage(String channel, byte[] message) {
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+
+    private static final class OutgoingMessage {
+        private final String channel;
+        private final byte[] message;
+        private final Promise<Void> result;
+
+        private OutgoingMessage(String channel, byte[] message, Promise<Void> result) {
+            this.channel = channel;
+            this.message = message;
+            this.result = result;
         }
     }
 
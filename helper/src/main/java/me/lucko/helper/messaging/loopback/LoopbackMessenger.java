@@ -0,0 +1,99 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.loopback;
+
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.messaging.AbstractMessenger;
+import me.lucko.helper.messaging.Channel;
+import me.lucko.helper.messaging.Messenger;
+import me.lucko.helper.promise.Promise;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link Messenger} implementation which delivers messages within the current JVM.
+ *
+ * <p>Every message sent on a channel is received by the channels with the same name
+ * in this messenger. This is useful for testing, and for running network features on
+ * a single server.</p>
+ *
+ * <p>By default, messages are encoded and decoded as they would be by any other
+ * messenger. If codecs are skipped, the sent object is passed directly to channels
+ * with the same type, so receivers must not modify it.</p>
+ */
+public class LoopbackMessenger implements Messenger {
+
+    /** The abstract messenger implementation used as the basis for Channel construction and handling */
+    private final AbstractMessenger messenger;
+
+    /** If messages should be passed without being encoded */
+    private final boolean skipCodecs;
+
+    public LoopbackMessenger() {
+        this(false);
+    }
+
+    public LoopbackMessenger(boolean skipCodecs) {
+        this.skipCodecs = skipCodecs;
+        this.messenger = new AbstractMessenger(new Sink(), channel -> {}, channel -> {});
+    }
+
+    /**
+     * Gets if messages are passed to receivers without being encoded.
+     *
+     * @return true if codecs are skipped
+     */
+    public boolean isSkippingCodecs() {
+        return this.skipCodecs;
+    }
+
+    @Nonnull
+    @Override
+    public <T> Channel<T> getChannel(@Nonnull String name, @Nonnull TypeToken<T> type) {
+        return this.messenger.getChannel(name, type);
+    }
+
+    private final class Sink implements AbstractMessenger.OutgoingMessageSink {
+        @Override
+        public void publish(String channel, byte[] message, Promise<Void> result) {
+            LoopbackMessenger.this.messenger.registerIncomingMessage(channel, message);
+            result.supply(null);
+        }
+
+        @Override
+        public <T> boolean publishObject(Channel<T> channel, T message, Promise<Void> result) {
+            if (!LoopbackMessenger.this.skipCodecs) {
+                return false;
+            }
+
+            LoopbackMessenger.this.messenger.registerIncomingObject(channel, message);
+            result.supply(null);
+            return true;
+        }
+    }
+
+}
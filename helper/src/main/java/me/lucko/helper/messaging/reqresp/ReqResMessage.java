@@ -30,6 +30,7 @@ import me.lucko.helper.messaging.conversation.ConversationMessage;
 import java.util.UUID;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * A {@link ConversationMessage} used by the {@link ReqRespChannel}.
@@ -40,9 +41,17 @@ class ReqResMessage<T> implements ConversationMessage {
     private final UUID id;
     private final T body;
 
+    // the id of the instance which sent the request, if replies should be addressed to it
+    private final String replyTo;
+
     ReqResMessage(UUID id, T body) {
+        this(id, body, null);
+    }
+
+    ReqResMessage(UUID id, T body, String replyTo) {
         this.id = id;
         this.body = body;
+        this.replyTo = replyTo;
     }
 
     @Nonnull
@@ -54,4 +63,9 @@ class ReqResMessage<T> implements ConversationMessage {
     public T getBody() {
         return this.body;
     }
+
+    @Nullable
+    public String getReplyTo() {
+        return this.replyTo;
+    }
 }
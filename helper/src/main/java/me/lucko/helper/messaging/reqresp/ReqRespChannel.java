@@ -26,15 +26,19 @@
 package me.lucko.helper.messaging.reqresp;
 
 import me.lucko.helper.messaging.Channel;
-import me.lucko.helper.messaging.conversation.ConversationChannel;
+import me.lucko.helper.messaging.InstanceData;
 import me.lucko.helper.promise.Promise;
 import me.lucko.helper.terminable.Terminable;
 
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
 /**
  * A generic request/response handler that can operate over the network.
  *
  * <p>This is a high-level interface, implemented in {@link SimpleReqRespChannel}
- * using lower-level {@link ConversationChannel}s and {@link Channel}s.</p>
+ * using lower-level {@link Channel}s.</p>
  *
  * @param <Req> the request type
  * @param <Resp> the response type
@@ -52,6 +56,63 @@ public interface ReqRespChannel<Req, Resp> extends Terminable {
      */
     Promise<Resp> request(Req req);
 
+    /**
+     * Sends a request and returns a promise encapsulating the response.
+     *
+     * @param req the request object
+     * @param timeout the time to wait for a response
+     * @param unit the unit of the timeout
+     * @return a promise encapsulating the response
+     */
+    Promise<Resp> request(Req req, long timeout, @Nonnull TimeUnit unit);
+
+    /**
+     * Sends a request to a specific server, and returns a promise encapsulating the response.
+     *
+     * <p>Only the server with the given {@link InstanceData#getId() id} will receive the request.</p>
+     *
+     * @param serverId the id of the server
+     * @param req the request object
+     * @return a promise encapsulating the response
+     */
+    Promise<Resp> requestServer(@Nonnull String serverId, Req req);
+
+    /**
+     * Sends a request to a specific server, and returns a promise encapsulating the response.
+     *
+     * @param serverId the id of the server
+     * @param req the request object
+     * @param timeout the time to wait for a response
+     * @param unit the unit of the timeout
+     * @return a promise encapsulating the response
+     */
+    Promise<Resp> requestServer(@Nonnull String serverId, Req req, long timeout, @Nonnull TimeUnit unit);
+
+    /**
+     * Sends a request to the servers in a group, and returns a promise encapsulating the
+     * first response.
+     *
+     * <p>Only servers which are a member of the {@link InstanceData#getGroups() group} will
+     * receive the request.</p>
+     *
+     * @param group the group
+     * @param req the request object
+     * @return a promise encapsulating the response
+     */
+    Promise<Resp> requestGroup(@Nonnull String group, Req req);
+
+    /**
+     * Sends a request to the servers in a group, and returns a promise encapsulating the
+     * first response.
+     *
+     * @param group the group
+     * @param req the request object
+     * @param timeout the time to wait for a response
+     * @param unit the unit of the timeout
+     * @return a promise encapsulating the response
+     */
+    Promise<Resp> requestGroup(@Nonnull String group, Req req, long timeout, @Nonnull TimeUnit unit);
+
     /**
      * Registers a response handler.
      *
@@ -28,87 +28,232 @@ package me.lucko.helper.messaging.reqresp;
 import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 
+import me.lucko.helper.messaging.Channel;
+import me.lucko.helper.messaging.ChannelAgent;
+import me.lucko.helper.messaging.ChannelListener;
+import me.lucko.helper.messaging.InstanceData;
 import me.lucko.helper.messaging.Messenger;
-import me.lucko.helper.messaging.conversation.ConversationChannel;
-import me.lucko.helper.messaging.conversation.ConversationReply;
-import me.lucko.helper.messaging.conversation.ConversationReplyListener;
 import me.lucko.helper.promise.Promise;
+import me.lucko.helper.scheduler.HashedWheelTimer;
+import me.lucko.helper.scheduler.HelperExecutors;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
- * Implements a {@link ReqRespChannel} using {@link ConversationChannel}s.
+ * Implements a {@link ReqRespChannel} using {@link Channel}s.
+ *
+ * <p>Requests are published on the <code>name-o</code> channel, or on
+ * <code>name-o-id</code> / <code>name-o-g-group</code> when targeted at a specific
+ * server or group. Responders listen on all of the channels which apply to them.</p>
+ *
+ * <p>If the channel was created with {@link InstanceData}, replies are routed back to
+ * the requesting instance only, using its <code>name-r-id</code> channel. Otherwise
+ * they are published on the shared <code>name-r</code> channel, which is compatible
+ * with the {@link me.lucko.helper.messaging.conversation.ConversationChannel} format.
+ * Responders which predate reply routing ignore the reply address and always reply on
+ * <code>name-r</code>, so requesters with {@link InstanceData} listen there too.</p>
+ *
+ * <p>Requests which are still waiting for a response when the channel is closed are
+ * completed exceptionally.</p>
  *
  * @param <Req> the request type
  * @param <Resp> the response type
  */
 public class SimpleReqRespChannel<Req, Resp> implements ReqRespChannel<Req, Resp> {
-    private final ConversationChannel<ReqResMessage<Req>, ReqResMessage<Resp>> channel;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private final Messenger messenger;
+    private final String name;
+    private final TypeToken<ReqResMessage<Req>> reqMsgType;
+    private final TypeToken<ReqResMessage<Resp>> respMsgType;
+
+    @Nullable
+    private final InstanceData instanceData;
+    private final long defaultTimeoutMillis;
+
+    private final ChannelAgent<ReqResMessage<Resp>> replyAgent;
+    @Nullable
+    private final ChannelAgent<ReqResMessage<Resp>> sharedReplyAgent;
+    private final Map<UUID, PendingRequest<Resp>> pendingRequests = new ConcurrentHashMap<>();
+    private final Set<ChannelAgent<ReqResMessage<Req>>> requestAgents = ConcurrentHashMap.newKeySet();
 
     public SimpleReqRespChannel(Messenger messenger, String name, TypeToken<Req> reqType, TypeToken<Resp> respType) {
-        TypeToken<ReqResMessage<Req>> reqMsgType = new TypeToken<ReqResMessage<Req>>(){}.where(new TypeParameter<Req>(){}, reqType);
-        TypeToken<ReqResMessage<Resp>> respMsgType = new TypeToken<ReqResMessage<Resp>>(){}.where(new TypeParameter<Resp>(){}, respType);
-        this.channel = messenger.getConversationChannel(name, reqMsgType, respMsgType);
+        this(messenger, name, reqType, respType, null);
+    }
+
+    public SimpleReqRespChannel(Messenger messenger, String name, TypeToken<Req> reqType, TypeToken<Resp> respType, @Nullable InstanceData instanceData) {
+        this(messenger, name, reqType, respType, instanceData, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public SimpleReqRespChannel(Messenger messenger, String name, TypeToken<Req> reqType, TypeToken<Resp> respType, @Nullable InstanceData instanceData, long defaultTimeout, TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        if (defaultTimeout <= 0) {
+            throw new IllegalArgumentException("defaultTimeout must be positive");
+        }
+
+        this.messenger = messenger;
+        this.name = name;
+        this.reqMsgType = new TypeToken<ReqResMessage<Req>>(){}.where(new TypeParameter<Req>(){}, reqType);
+        this.respMsgType = new TypeToken<ReqResMessage<Resp>>(){}.where(new TypeParameter<Resp>(){}, respType);
+        this.instanceData = instanceData;
+        this.defaultTimeoutMillis = unit.toMillis(defaultTimeout);
+
+        Channel<ReqResMessage<Resp>> replyChannel = instanceData == null ? getReplyChannel(null) : getReplyChannel(instanceData.getId());
+        this.replyAgent = replyChannel.newAgent(new ReplyListener());
+
+        // older responders always reply on the shared channel
+        this.sharedReplyAgent = instanceData == null ? null : getReplyChannel(null).newAgent(new ReplyListener());
+    }
+
+    private Channel<ReqResMessage<Resp>> getReplyChannel(@Nullable String instanceId) {
+        String channel = instanceId == null ? this.name + "-r" : this.name + "-r-" + instanceId;
+        return this.messenger.getChannel(channel, this.respMsgType);
+    }
+
+    private final class ReplyListener implements ChannelListener<ReqResMessage<Resp>> {
+        @Override
+        public void onMessage(@Nonnull ChannelAgent<ReqResMessage<Resp>> agent, @Nonnull ReqResMessage<Resp> message) {
+            PendingRequest<Resp> request = SimpleReqRespChannel.this.pendingRequests.remove(message.getConversationId());
+            if (request != null) {
+                request.timeout.cancel();
+                request.promise.supply(message.getBody());
+            }
+        }
+    }
+
+    private static final class PendingRequest<Resp> {
+        private final Promise<Resp> promise = Promise.empty();
+        private HashedWheelTimer.Timeout timeout;
     }
 
     @Override
     public Promise<Resp> request(Req req) {
-        ReqResMessage<Req> msg = new ReqResMessage<>(UUID.randomUUID(), req);
-        Promise<Resp> promise = Promise.empty();
-        this.channel.sendMessage(msg, new ConversationReplyListener<ReqResMessage<Resp>>() {
-            @Nonnull
-            @Override
-            public RegistrationAction onReply(@Nonnull ReqResMessage<Resp> reply) {
-                promise.supply(reply.getBody());
-                return RegistrationAction.STOP_LISTENING;
-            }
+        return request(req, this.defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Promise<Resp> request(Req req, long timeout, @Nonnull TimeUnit unit) {
+        return send(this.name + "-o", req, timeout, unit);
+    }
 
-            @Override
-            public void onTimeout(@Nonnull List<ReqResMessage<Resp>> replies) {
-                promise.supplyException(new TimeoutException("Request timed out"));
+    @Override
+    public Promise<Resp> requestServer(@Nonnull String serverId, Req req) {
+        return requestServer(serverId, req, this.defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Promise<Resp> requestServer(@Nonnull String serverId, Req req, long timeout, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(serverId, "serverId");
+        return send(this.name + "-o-" + serverId, req, timeout, unit);
+    }
+
+    @Override
+    public Promise<Resp> requestGroup(@Nonnull String group, Req req) {
+        return requestGroup(group, req, this.defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Promise<Resp> requestGroup(@Nonnull String group, Req req, long timeout, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(group, "group");
+        return send(this.name + "-o-g-" + group, req, timeout, unit);
+    }
+
+    private Promise<Resp> send(String channel, Req req, long timeout, TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+
+        UUID id = UUID.randomUUID();
+        PendingRequest<Resp> request = new PendingRequest<>();
+        this.pendingRequests.put(id, request);
+        request.timeout = HelperExecutors.timer().newTimeout(() -> {
+            if (this.pendingRequests.remove(id, request)) {
+                request.promise.supplyException(new TimeoutException("Request timed out"));
             }
-        }, 5, TimeUnit.SECONDS);
-        return promise;
+        }, timeout, unit);
+
+        String replyTo = this.instanceData == null ? null : this.instanceData.getId();
+        this.messenger.getChannel(channel, this.reqMsgType).sendMessage(new ReqResMessage<>(id, req, replyTo));
+        return request.promise;
     }
 
     @Override
     public void responseHandler(ResponseHandler<Req, Resp> handler) {
-        this.channel.newAgent((agent, message) -> {
-            UUID id = message.getConversationId();
-            Req req = message.getBody();
-
-            Resp resp = handler.response(req);
+        listen((agent, message) -> {
+            Resp resp = handler.response(message.getBody());
             if (resp != null) {
-                return ConversationReply.of(new ReqResMessage<>(id, resp));
-            } else {
-                return ConversationReply.noReply();
+                reply(message, resp);
             }
         });
     }
 
     @Override
     public void asyncResponseHandler(AsyncResponseHandler<Req, Resp> handler) {
-        this.channel.newAgent((agent, message) -> {
-            UUID id = message.getConversationId();
-            Req req = message.getBody();
-
-            Promise<Resp> promise = handler.response(req);
+        listen((agent, message) -> {
+            Promise<Resp> promise = handler.response(message.getBody());
             if (promise != null) {
-                Promise<ReqResMessage<Resp>> composedPromise = promise.thenApplyAsync(resp -> resp == null ? null : new ReqResMessage<>(id, resp));
-                return ConversationReply.ofPromise(composedPromise);
-            } else {
-                return ConversationReply.noReply();
+                promise.thenAcceptAsync(resp -> {
+                    if (resp != null) {
+                        reply(message, resp);
+                    }
+                });
             }
         });
     }
 
+    private void listen(ChannelListener<ReqResMessage<Req>> listener) {
+        List<String> channels = new ArrayList<>();
+        channels.add(this.name + "-o");
+        if (this.instanceData != null) {
+            channels.add(this.name + "-o-" + this.instanceData.getId());
+            for (String group : this.instanceData.getGroups()) {
+                channels.add(this.name + "-o-g-" + group);
+            }
+        }
+
+        for (String channel : channels) {
+            this.requestAgents.add(this.messenger.getChannel(channel, this.reqMsgType).newAgent(listener));
+        }
+    }
+
+    private void reply(ReqResMessage<Req> request, Resp resp) {
+        getReplyChannel(request.getReplyTo()).sendMessage(new ReqResMessage<>(request.getConversationId(), resp));
+    }
+
+    /**
+     * Gets the number of requests which are waiting for a response.
+     *
+     * @return the number of outstanding requests
+     */
+    public int getPendingRequestCount() {
+        return this.pendingRequests.size();
+    }
+
     @Override
     public void close() {
-        this.channel.close();
+        this.replyAgent.close();
+        if (this.sharedReplyAgent != null) {
+            this.sharedReplyAgent.close();
+        }
+        this.requestAgents.forEach(ChannelAgent::close);
+
+        for (UUID id : this.pendingRequests.keySet()) {
+            PendingRequest<Resp> request = this.pendingRequests.remove(id);
+            if (request != null) {
+                if (request.timeout != null) {
+                    request.timeout.cancel();
+                }
+                request.promise.supplyException(new IllegalStateException("Channel closed"));
+            }
+        }
     }
 }
@@ -0,0 +1,608 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.messaging.socket;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+
+import me.lucko.helper.messaging.AbstractMessenger;
+import me.lucko.helper.messaging.Channel;
+import me.lucko.helper.messaging.Messenger;
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.utils.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link Messenger} implementation using plain TCP sockets.
+ *
+ * <p>Each instance listens on a local address, and connects to a fixed list of peer addresses.
+ * Outgoing messages are sent to every connected peer, and incoming messages are received from
+ * any peer which connects, so a small mesh can be formed by giving each instance the
+ * addresses of the others. There is no broker, and messages are not forwarded between peers.</p>
+ *
+ * <p>All socket I/O is performed by a single thread using non-blocking channels. Messages are
+ * sent as length prefixed frames. Connections to peers send heartbeats at a fixed interval, and
+ * connections which stop responding to them are closed. Connections to peers are re-established with an exponential
+ * backoff.</p>
+ *
+ * <p>Like redis pub/sub, messages sent while a peer is disconnected are not delivered to it.</p>
+ *
+ * <p>The messenger can be tuned using the following system properties:</p>
+ * <ul>
+ *     <li><b>helper.socket.heartbeat-interval</b> - the time in milliseconds between the
+ *     heartbeats sent to each peer. Defaults to 5000.</li>
+ *     <li><b>helper.socket.timeout</b> - the time in milliseconds after which a connection
+ *     which has not received anything is closed. Defaults to 15000.</li>
+ *     <li><b>helper.socket.max-pending-bytes</b> - the maximum number of bytes waiting to be
+ *     written to each peer. Messages sent while the limit is exceeded fail. Defaults to 8MB.</li>
+ * </ul>
+ */
+public class SocketMessenger implements Messenger, Terminable {
+    private static final long HEARTBEAT_INTERVAL_MILLIS = Long.getLong("helper.socket.heartbeat-interval", 5000L);
+    private static final long TIMEOUT_MILLIS = Long.getLong("helper.socket.timeout", 15000L);
+    private static final long MAX_PENDING_BYTES = Long.getLong("helper.socket.max-pending-bytes", 8L * 1024 * 1024);
+
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 250;
+    private static final long RECONNECT_BASE_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 30000;
+
+    private static final byte FRAME_HEARTBEAT = 0;
+    private static final byte FRAME_HEARTBEAT_REPLY = 1;
+    private static final byte FRAME_MESSAGE = 2;
+
+    /** The abstract messenger implementation used as the basis for Channel construction and handling */
+    private final AbstractMessenger messenger;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final List<Peer> peers;
+    private final Thread ioThread;
+
+    /** The channels currently subscribed to */
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+    /** Tasks to be run by the I/O thread */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** Connections accepted from peers, only accessed by the I/O thread */
+    private final Set<Connection> inbound = new HashSet<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new socket messenger.
+     *
+     * @param bindAddress the local address to listen on
+     * @param peers the addresses of the peers to send messages to
+     */
+    public SocketMessenger(@Nonnull InetSocketAddress bindAddress, @Nonnull Collection<InetSocketAddress> peers) {
+        Objects.requireNonNull(bindAddress, "bindAddress");
+        Objects.requireNonNull(peers, "peers");
+
+        this.messenger = new AbstractMessenger(this::handleOutgoing, this.subscribed::add, this.subscribed::remove);
+
+        ImmutableList.Builder<Peer> peerList = ImmutableList.builder();
+        for (InetSocketAddress address : peers) {
+            peerList.add(new Peer(Objects.requireNonNull(address, "address")));
+        }
+        this.peers = peerList.build();
+
+        try {
+            this.selector = Selector.open();
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.configureBlocking(false);
+            this.serverChannel.bind(bindAddress);
+            this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.ioThread = new Thread(this::run, "helper-socket-messenger");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * Gets the number of peers which are currently connected.
+     *
+     * @return the number of connected peers
+     */
+    public int getConnectedPeerCount() {
+        int count = 0;
+        for (Peer peer : this.peers) {
+            Connection connection = peer.connection;
+            if (connection != null && connection.connected) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void handleOutgoing(String channel, byte[] message, Promise<Void> result) {
+        ByteBuffer frame = encodeMessage(channel, message);
+
+        IOException failure = null;
+        for (Peer peer : this.peers) {
+            Connection connection = peer.connection;
+            if (connection == null || !connection.connected) {
+                continue;
+            }
+            if (!connection.enqueue(frame.duplicate())) {
+                failure = new IOException("Too many bytes pending for peer " + peer.address);
+            }
+        }
+
+        if (failure != null) {
+            result.supplyException(failure);
+        } else {
+            result.supply(null);
+        }
+    }
+
+    private static ByteBuffer encodeMessage(String channel, byte[] message) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        if (channelBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Channel name too long");
+        }
+
+        int length = 1 + 2 + channelBytes.length + message.length;
+        ByteBuffer frame = ByteBuffer.allocate(4 + length);
+        frame.putInt(length);
+        frame.put(FRAME_MESSAGE);
+        frame.putShort((short) channelBytes.length);
+        frame.put(channelBytes);
+        frame.put(message);
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer encodeHeartbeat(byte type) {
+        ByteBuffer frame = ByteBuffer.allocate(5);
+        frame.putInt(1);
+        frame.put(type);
+        frame.flip();
+        return frame;
+    }
+
+    private void run() {
+        try {
+            while (this.running) {
+                this.selector.select(SELECT_TIMEOUT_MILLIS);
+
+                Runnable task;
+                while ((task = this.tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.severe("[helper] Socket messenger task failed", e);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+
+                tick(System.currentTimeMillis());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (this.running && !(e instanceof ClosedSelectorException)) {
+                Log.severe("[helper] Socket messenger I/O thread failed", e);
+            }
+        } finally {
+            // the messenger can't be used once the I/O thread has stopped
+            this.running = false;
+
+            for (Peer peer : this.peers) {
+                if (peer.connection != null) {
+                    peer.connection.close();
+                }
+            }
+            for (Connection connection : new HashSet<>(this.inbound)) {
+                connection.close();
+            }
+            try {
+                this.serverChannel.close();
+                this.selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.finishConnect();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException e) {
+            connection.fail(e);
+        } catch (RuntimeException e) {
+            // drop the connection rather than letting a bad peer stop the I/O thread
+            connection.fail(new IOException("Unable to handle connection", e));
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = this.serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                Connection connection = new Connection(channel, null);
+                connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+                connection.connected = true;
+                this.inbound.add(connection);
+            }
+        } catch (IOException e) {
+            Log.warn("[helper] Unable to accept socket messenger connection", e);
+        }
+    }
+
+    private void tick(long now) {
+        for (Peer peer : this.peers) {
+            Connection connection = peer.connection;
+            if (connection == null) {
+                if (now >= peer.nextConnectTime) {
+                    peer.connect();
+                }
+            } else if (connection.connected) {
+                if (now - connection.lastRead > TIMEOUT_MILLIS) {
+                    connection.fail(new IOException("Timed out"));
+                } else if (now - connection.lastHeartbeat > HEARTBEAT_INTERVAL_MILLIS) {
+                    // sent even while messages are being written, since the peer only
+                    // writes to this connection in reply to heartbeats
+                    connection.lastHeartbeat = now;
+                    connection.enqueue(encodeHeartbeat(FRAME_HEARTBEAT));
+                }
+            } else if (now - connection.lastRead > TIMEOUT_MILLIS) {
+                connection.fail(new IOException("Timed out while connecting"));
+            }
+        }
+
+        for (Connection connection : new HashSet<>(this.inbound)) {
+            if (now - connection.lastRead > TIMEOUT_MILLIS) {
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !this.running;
+    }
+
+    @Nonnull
+    @Override
+    public <T> Channel<T> getChannel(@Nonnull String name, @Nonnull TypeToken<T> type) {
+        return this.messenger.getChannel(name, type);
+    }
+
+    /**
+     * A remote instance which messages are sent to.
+     */
+    private final class Peer {
+        private final InetSocketAddress address;
+
+        // the current outbound connection, set and cleared by the I/O thread
+        private volatile Connection connection = null;
+
+        private int attempts = 0;
+        private long nextConnectTime = 0;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void connect() {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                Connection connection = new Connection(channel, this);
+                this.connection = connection;
+                if (channel.connect(this.address)) {
+                    connection.key = channel.register(SocketMessenger.this.selector, SelectionKey.OP_READ, connection);
+                    connected(connection);
+                } else {
+                    connection.key = channel.register(SocketMessenger.this.selector, SelectionKey.OP_CONNECT, connection);
+                }
+            } catch (IOException | RuntimeException e) {
+                // e.g. the address couldn't be resolved
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        // ignore
+                    }
+                }
+                disconnected(e instanceof IOException ? (IOException) e : new IOException(e.toString(), e));
+            }
+        }
+
+        private void connected(Connection connection) {
+            connection.connected = true;
+            if (this.attempts != 0) {
+                Log.info("[helper] Socket messenger reconnected to " + this.address);
+            }
+            this.attempts = 0;
+        }
+
+        private void disconnected(IOException e) {
+            this.connection = null;
+
+            // exponential backoff, with jitter
+            long delay = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(this.attempts, 16));
+            delay = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+            this.attempts++;
+            this.nextConnectTime = System.currentTimeMillis() + delay;
+
+            if (this.attempts == 1) {
+                Log.warn("[helper] Lost socket messenger connection to " + this.address + " (" + e.getMessage() + "), reconnecting in " + delay + "ms");
+            }
+        }
+    }
+
+    /**
+     * A socket connection, either to a {@link Peer} or accepted from one.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Peer peer;
+        private SelectionKey key;
+
+        private volatile boolean connected = false;
+        private boolean closed = false;
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long lastRead = System.currentTimeMillis();
+        private long lastHeartbeat = System.currentTimeMillis();
+
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong(0);
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+        private Connection(SocketChannel channel, Peer peer) {
+            this.channel = channel;
+            this.peer = peer;
+        }
+
+        /**
+         * Queues a frame to be written, from any thread.
+         *
+         * @param frame the frame
+         * @return false if the frame was dropped because too many bytes are pending
+         */
+        private boolean enqueue(ByteBuffer frame) {
+            int size = frame.remaining();
+            if (this.pendingBytes.addAndGet(size) > MAX_PENDING_BYTES) {
+                this.pendingBytes.addAndGet(-size);
+                return false;
+            }
+
+            this.writeQueue.add(frame);
+
+            if (this.flushScheduled.compareAndSet(false, true)) {
+                SocketMessenger.this.tasks.add(() -> {
+                    this.flushScheduled.set(false);
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                });
+                SocketMessenger.this.selector.wakeup();
+            }
+            return true;
+        }
+
+        private void finishConnect() throws IOException {
+            this.channel.finishConnect();
+            this.key.interestOps(SelectionKey.OP_READ);
+            this.lastRead = System.currentTimeMillis();
+            this.peer.connected(this);
+        }
+
+        private void flush() throws IOException {
+            if (this.closed || !this.connected) {
+                return;
+            }
+
+            ByteBuffer buffer;
+            while ((buffer = this.writeQueue.peek()) != null) {
+                int size = buffer.remaining();
+                this.channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // the socket buffer is full, wait until it can be written to again
+                    this.pendingBytes.addAndGet(buffer.remaining() - size);
+                    this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                this.writeQueue.poll();
+                this.pendingBytes.addAndGet(-size);
+            }
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        private void read() throws IOException {
+            int read;
+            while ((read = this.channel.read(this.readBuffer)) > 0) {
+                this.lastRead = System.currentTimeMillis();
+                this.readBuffer.flip();
+                readFrames();
+                this.readBuffer.compact();
+            }
+            if (read < 0) {
+                throw new IOException("Connection closed by peer");
+            }
+        }
+
+        private void readFrames() throws IOException {
+            while (this.readBuffer.remaining() >= 4) {
+                int length = this.readBuffer.getInt(this.readBuffer.position());
+                if (length < 1 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+
+                if (this.readBuffer.remaining() < 4 + length) {
+                    if (this.readBuffer.capacity() < 4 + length) {
+                        // grow the buffer so the whole frame fits
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(this.readBuffer);
+                        larger.flip();
+                        this.readBuffer = larger;
+                    }
+                    return;
+                }
+
+                this.readBuffer.getInt();
+                byte type = this.readBuffer.get();
+                int end = this.readBuffer.position() + length - 1;
+                handleFrame(type, end);
+                this.readBuffer.position(end);
+            }
+        }
+
+        private void handleFrame(byte type, int end) throws IOException {
+            switch (type) {
+                case FRAME_HEARTBEAT:
+                    enqueue(encodeHeartbeat(FRAME_HEARTBEAT_REPLY));
+                    break;
+                case FRAME_HEARTBEAT_REPLY:
+                    break;
+                case FRAME_MESSAGE: {
+                    if (end - this.readBuffer.position() < 2) {
+                        throw new IOException("Truncated message frame");
+                    }
+
+                    int channelLength = this.readBuffer.getShort() & 0xFFFF;
+                    if (this.readBuffer.position() + channelLength > end) {
+                        throw new IOException("Invalid channel length: " + channelLength);
+                    }
+
+                    byte[] channelBytes = new byte[channelLength];
+                    this.readBuffer.get(channelBytes);
+                    String channel = new String(channelBytes, StandardCharsets.UTF_8);
+                    if (!SocketMessenger.this.subscribed.contains(channel)) {
+                        break;
+                    }
+
+                    byte[] message = new byte[end - this.readBuffer.position()];
+                    this.readBuffer.get(message);
+
+                    // forward to the abstract Messenger impl
+                    SocketMessenger.this.messenger.registerIncomingMessage(channel, message);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown frame type: " + type);
+            }
+        }
+
+        private void fail(IOException e) {
+            close();
+            if (this.peer != null && this.peer.connection == this) {
+                this.peer.disconnected(e);
+            }
+        }
+
+        private void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.connected = false;
+
+            if (this.key != null) {
+                this.key.cancel();
+            }
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+
+            this.writeQueue.clear();
+            this.pendingBytes.set(0);
+            if (this.peer == null) {
+                SocketMessenger.this.inbound.remove(this);
+            }
+        }
+    }
+}
@@ -39,16 +39,10 @@ import javax.annotation.Nonnull;
  *
  * @param <T> the type
  */
-public class AbstractMetadataRegistry<T> implements MetadataRegistry<T> {
-
-    private static final CacheLoader<?, MetadataMap> LOADER = new Loader<>();
-    private static <T> CacheLoader<T, MetadataMap> getLoader() {
-        //noinspection unchecked
-        return (CacheLoader) LOADER;
-    }
+public class AbstractMetadataRegistry<T> extends BaseMetadataRegistry<T> {
 
     @Nonnull
-    protected final LoadingCache<T, MetadataMap> cache = CacheBuilder.newBuilder().build(getLoader());
+    protected final LoadingCache<T, MetadataMap> cache = CacheBuilder.newBuilder().build(new Loader());
 
     @Nonnull
     @Override
@@ -74,14 +68,14 @@ public class AbstractMetadataRegistry<T> implements MetadataRegistry<T> {
 
     @Override
     public void cleanup() {
-        // MetadataMap#isEmpty also removes expired values
+        // expired values are evicted from the maps as they expire, so only empty maps need to be removed
         this.cache.asMap().values().removeIf(MetadataMap::isEmpty);
     }
 
-    private static final class Loader<T> extends CacheLoader<T, MetadataMap> {
+    private final class Loader extends CacheLoader<T, MetadataMap> {
         @Override
         public MetadataMap load(@Nonnull T key) {
-            return MetadataMap.create();
+            return createMap(key);
         }
     }
 }
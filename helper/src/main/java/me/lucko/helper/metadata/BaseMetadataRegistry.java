@@ -0,0 +1,129 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.metadata;
+
+import me.lucko.helper.terminable.Terminable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Functionality shared by the helper {@link MetadataRegistry} implementations,
+ * independent of how the maps are stored.
+ *
+ * @param <T> the type
+ */
+abstract class BaseMetadataRegistry<T> implements MetadataRegistry<T> {
+
+    private final List<MetadataExpiryListener<? super T>> expiryListeners = new CopyOnWriteArrayList<>();
+
+    // an index of the objects holding a value for each key
+    private final Map<MetadataKey<?>, Set<T>> keyIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link MetadataMap} to be held in this registry for the given object.
+     *
+     * @param id the object
+     * @return a new metadata map
+     */
+    final MetadataMap createMap(T id) {
+        return new ConcurrentMetadataMap(new ConcurrentMetadataMap.Listener() {
+            @Override
+            public void onAdd(MetadataKey<?> key) {
+                BaseMetadataRegistry.this.keyIndex.compute(key, (k, holders) -> {
+                    if (holders == null) {
+                        holders = ConcurrentHashMap.newKeySet();
+                    }
+                    holders.add(id);
+                    return holders;
+                });
+            }
+
+            @Override
+            public void onRemove(MetadataKey<?> key) {
+                // drop the set once empty, so keys which are no longer used don't accumulate
+                BaseMetadataRegistry.this.keyIndex.computeIfPresent(key, (k, holders) -> {
+                    holders.remove(id);
+                    return holders.isEmpty() ? null : holders;
+                });
+            }
+
+            @Override
+            public void onExpire(MetadataKey<?> key, TransientValue<?> value) {
+                BaseMetadataRegistry.this.onExpire(id, key, value);
+            }
+        });
+    }
+
+    /**
+     * Performs an action for each object in this registry which holds a value for the given key.
+     *
+     * <p>Only the objects holding the key are visited, rather than every map in the registry.</p>
+     *
+     * @param key the key
+     * @param action the action to perform
+     * @param <K> the key type
+     */
+    protected <K> void forEachWithKey(@Nonnull MetadataKey<K> key, @Nonnull BiConsumer<? super T, ? super K> action) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(action, "action");
+
+        Set<T> holders = this.keyIndex.get(key);
+        if (holders == null) {
+            return;
+        }
+
+        for (T id : holders) {
+            get(id).ifPresent(map -> map.get(key).ifPresent(value -> action.accept(id, value)));
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Terminable addExpiryListener(@Nonnull MetadataExpiryListener<? super T> listener) {
+        Objects.requireNonNull(listener, "listener");
+        this.expiryListeners.add(listener);
+        return () -> this.expiryListeners.remove(listener);
+    }
+
+    private void onExpire(T id, MetadataKey<?> key, TransientValue<?> value) {
+        for (MetadataExpiryListener<? super T> listener : this.expiryListeners) {
+            try {
+                listener.onExpiry(id, key, value);
+            } catch (Exception e) {
+                new RuntimeException("Exception calling MetadataExpiryListener " + listener, e).printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.metadata;
+
+import com.google.common.collect.ImmutableMap;
+
+import me.lucko.helper.metadata.type.BlockMetadataRegistry;
+import me.lucko.helper.serialize.BlockPosition;
+import me.lucko.helper.serialize.ChunkPosition;
+import me.lucko.helper.serialize.ChunkRegion;
+
+import org.bukkit.block.Block;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link BlockMetadataRegistry} which groups metadata maps by the chunk
+ * containing the block.
+ *
+ * <p>Lookups for a single chunk only visit the blocks within that chunk, and all
+ * metadata held for a chunk can be dropped at once when it unloads.</p>
+ */
+final class ChunkedBlockMetadataRegistry extends BaseMetadataRegistry<BlockPosition> implements BlockMetadataRegistry {
+
+    private final Map<ChunkPosition, Map<BlockPosition, MetadataMap>> chunks = new ConcurrentHashMap<>();
+    private volatile boolean removedOnChunkUnload = false;
+
+    @Nonnull
+    @Override
+    public MetadataMap provide(@Nonnull BlockPosition id) {
+        Objects.requireNonNull(id, "id");
+        ChunkPosition chunk = id.toChunk();
+
+        // fast path: the map already exists
+        Map<BlockPosition, MetadataMap> blocks = this.chunks.get(chunk);
+        if (blocks != null) {
+            MetadataMap map = blocks.get(id);
+            if (map != null) {
+                return map;
+            }
+        }
+
+        // create the map under the chunk's bin lock, so it can't race with the chunk being removed
+        MetadataMap[] ret = new MetadataMap[1];
+        this.chunks.compute(chunk, (c, existing) -> {
+            if (existing == null) {
+                existing = new ConcurrentHashMap<>();
+            }
+            ret[0] = existing.computeIfAbsent(id, this::createMap);
+            return existing;
+        });
+        return ret[0];
+    }
+
+    @Nonnull
+    @Override
+    public MetadataMap provide(@Nonnull Block block) {
+        Objects.requireNonNull(block, "block");
+        return provide(BlockPosition.of(block));
+    }
+
+    @Nonnull
+    @Override
+    public Optional<MetadataMap> get(@Nonnull BlockPosition id) {
+        Objects.requireNonNull(id, "id");
+        Map<BlockPosition, MetadataMap> blocks = this.chunks.get(id.toChunk());
+        return blocks == null ? Optional.empty() : Optional.ofNullable(blocks.get(id));
+    }
+
+    @Nonnull
+    @Override
+    public Optional<MetadataMap> get(@Nonnull Block block) {
+        Objects.requireNonNull(block, "block");
+        return get(BlockPosition.of(block));
+    }
+
+    @Override
+    public void remove(@Nonnull BlockPosition id) {
+        Objects.requireNonNull(id, "id");
+        MetadataMap[] removed = new MetadataMap[1];
+        this.chunks.computeIfPresent(id.toChunk(), (c, blocks) -> {
+            removed[0] = blocks.remove(id);
+            return blocks.isEmpty() ? null : blocks;
+        });
+
+        if (removed[0] != null) {
+            removed[0].clear();
+        }
+    }
+
+    @Override
+    public void removeChunk(@Nonnull ChunkPosition chunk) {
+        Objects.requireNonNull(chunk, "chunk");
+        Map<BlockPosition, MetadataMap> blocks = this.chunks.remove(chunk);
+        if (blocks != null) {
+            blocks.values().forEach(MetadataMap::clear);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        for (ChunkPosition chunk : this.chunks.keySet()) {
+            this.chunks.computeIfPresent(chunk, (c, blocks) -> {
+                blocks.values().removeIf(MetadataMap::isEmpty);
+                return blocks.isEmpty() ? null : blocks;
+            });
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <K> Map<BlockPosition, K> getAllWithKey(@Nonnull MetadataKey<K> key) {
+        Objects.requireNonNull(key, "key");
+        ImmutableMap.Builder<BlockPosition, K> ret = ImmutableMap.builder();
+        forEachWithKey(key, ret::put);
+        return ret.build();
+    }
+
+    @Nonnull
+    @Override
+    public Map<BlockPosition, MetadataMap> getAllInChunk(@Nonnull ChunkPosition chunk) {
+        Objects.requireNonNull(chunk, "chunk");
+        Map<BlockPosition, MetadataMap> blocks = this.chunks.get(chunk);
+        return blocks == null ? ImmutableMap.of() : ImmutableMap.copyOf(blocks);
+    }
+
+    @Nonnull
+    @Override
+    public Map<BlockPosition, MetadataMap> getAllInRegion(@Nonnull ChunkRegion region) {
+        Objects.requireNonNull(region, "region");
+        ImmutableMap.Builder<BlockPosition, MetadataMap> ret = ImmutableMap.builder();
+
+        long area = (long) (region.getWidth() + 1) * (region.getDepth() + 1);
+        if (area <= this.chunks.size()) {
+            // look up each chunk in the region
+            ChunkPosition min = region.getMin();
+            for (int x = 0; x <= region.getWidth(); x++) {
+                for (int z = 0; z <= region.getDepth(); z++) {
+                    Map<BlockPosition, MetadataMap> blocks = this.chunks.get(min.add(x, z));
+                    if (blocks != null) {
+                        ret.putAll(blocks);
+                    }
+                }
+            }
+        } else {
+            // the region is larger than the number of chunks holding metadata
+            this.chunks.forEach((chunk, blocks) -> {
+                if (region.inRegion(chunk)) {
+                    ret.putAll(blocks);
+                }
+            });
+        }
+
+        return ret.build();
+    }
+
+    @Nonnull
+    @Override
+    public <K> Map<BlockPosition, K> getAllWithKeyInChunk(@Nonnull ChunkPosition chunk, @Nonnull MetadataKey<K> key) {
+        Objects.requireNonNull(chunk, "chunk");
+        Objects.requireNonNull(key, "key");
+        Map<BlockPosition, MetadataMap> blocks = this.chunks.get(chunk);
+        if (blocks == null) {
+            return ImmutableMap.of();
+        }
+
+        ImmutableMap.Builder<BlockPosition, K> ret = ImmutableMap.builder();
+        blocks.forEach((pos, map) -> map.get(key).ifPresent(t -> ret.put(pos, t)));
+        return ret.build();
+    }
+
+    @Override
+    public boolean isRemovedOnChunkUnload() {
+        return this.removedOnChunkUnload;
+    }
+
+    @Override
+    public void setRemovedOnChunkUnload(boolean removeOnChunkUnload) {
+        this.removedOnChunkUnload = removeOnChunkUnload;
+    }
+
+}
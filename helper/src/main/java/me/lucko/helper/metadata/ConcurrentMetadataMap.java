@@ -0,0 +1,469 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.metadata;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MetadataMap} backed by a {@link ConcurrentHashMap}.
+ *
+ * <p>Lookups are hashed on the key id and do not take a lock. Only the entry being
+ * read is checked for expiry - other expired values are evicted by the {@link ExpiryWheel}.</p>
+ */
+final class ConcurrentMetadataMap implements MetadataMap {
+    private final ConcurrentHashMap<MetadataKey<?>, Entry> map = new ConcurrentHashMap<>();
+
+    @Nullable
+    private final Listener listener;
+
+    ConcurrentMetadataMap() {
+        this(null);
+    }
+
+    ConcurrentMetadataMap(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public <T> void put(@Nonnull MetadataKey<T> key, @Nonnull T value) {
+        internalPut(key, value);
+    }
+
+    @Override
+    public <T> void put(@Nonnull MetadataKey<T> key, @Nonnull TransientValue<T> value) {
+        internalPut(key, value);
+    }
+
+    private void internalPut(MetadataKey<?> key, Object value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+
+        Entry entry = new Entry(key, value);
+        Entry[] replaced = new Entry[1];
+        this.map.compute(key, (k, existing) -> {
+            if (existing != null) {
+                checkType(existing.key, key);
+            } else {
+                onAdd(key);
+            }
+            replaced[0] = existing;
+            return entry;
+        });
+        untrack(replaced[0]);
+        track(entry);
+    }
+
+    @Override
+    public <T> void forcePut(@Nonnull MetadataKey<T> key, @Nonnull T value) {
+        internalForcePut(key, value);
+    }
+
+    @Override
+    public <T> void forcePut(@Nonnull MetadataKey<T> key, @Nonnull TransientValue<T> value) {
+        internalForcePut(key, value);
+    }
+
+    private void internalForcePut(MetadataKey<?> key, Object value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+
+        Entry entry = new Entry(key, value);
+        Entry[] replaced = new Entry[1];
+        this.map.compute(key, (k, existing) -> {
+            if (existing == null) {
+                onAdd(key);
+            }
+            replaced[0] = existing;
+            return entry;
+        });
+        untrack(replaced[0]);
+        track(entry);
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(@Nonnull MetadataKey<T> key, @Nonnull T value) {
+        return internalPutIfAbsent(key, value);
+    }
+
+    @Override
+    public <T> boolean putIfAbsent(@Nonnull MetadataKey<T> key, @Nonnull TransientValue<T> value) {
+        return internalPutIfAbsent(key, value);
+    }
+
+    private boolean internalPutIfAbsent(MetadataKey<?> key, Object value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+
+        Entry entry = new Entry(key, value);
+        Entry[] replaced = new Entry[1];
+
+        Entry result = this.map.compute(key, (k, existing) -> {
+            // an expired value counts as absent
+            if (existing != null && !existing.shouldExpire()) {
+                return existing;
+            }
+
+            if (existing == null) {
+                onAdd(key);
+            }
+            replaced[0] = existing;
+            return entry;
+        });
+
+        if (result != entry) {
+            return false;
+        }
+
+        untrack(replaced[0]);
+        track(entry);
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public <T> Optional<T> get(@Nonnull MetadataKey<T> key) {
+        Objects.requireNonNull(key, "key");
+
+        Entry entry = this.map.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        Object unboxed = entry.unbox();
+
+        // if it has expired
+        if (unboxed == null) {
+            evict(entry);
+            return Optional.empty();
+        }
+
+        checkType(entry.key, key);
+        return Optional.of(key.cast(unboxed));
+    }
+
+    @Override
+    public <T> boolean ifPresent(@Nonnull MetadataKey<T> key, @Nonnull Consumer<? super T> action) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(action, "action");
+        Optional<T> opt = get(key);
+        if (!opt.isPresent()) {
+            return false;
+        }
+
+        action.accept(opt.get());
+        return true;
+    }
+
+    @Override
+    public <T> T getOrNull(@Nonnull MetadataKey<T> key) {
+        Objects.requireNonNull(key, "key");
+        return get(key).orElse(null);
+    }
+
+    @Nonnull
+    @Override
+    public <T> T getOrDefault(@Nonnull MetadataKey<T> key, T def) {
+        Objects.requireNonNull(key, "key");
+        return get(key).orElse(def);
+    }
+
+    @Nonnull
+    @Override
+    public <T> T getOrPut(@Nonnull MetadataKey<T> key, @Nonnull Supplier<? extends T> def) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(def, "def");
+
+        return key.cast(internalGetOrPut(key, () -> {
+            T t = def.get();
+            Objects.requireNonNull(t, "supplied def");
+            return t;
+        }));
+    }
+
+    @Nonnull
+    @Override
+    public <T> T getOrPutExpiring(@Nonnull MetadataKey<T> key, @Nonnull Supplier<? extends TransientValue<T>> def) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(def, "def");
+
+        return key.cast(internalGetOrPut(key, () -> {
+            TransientValue<T> t = def.get();
+            Objects.requireNonNull(t, "supplied def");
+
+            if (t.getOrNull() == null) {
+                throw new IllegalArgumentException("Transient value already expired: " + t);
+            }
+            return t;
+        }));
+    }
+
+    private Object internalGetOrPut(MetadataKey<?> key, Supplier<?> def) {
+        while (true) {
+            // fast path: the value is already present
+            Entry entry = this.map.get(key);
+            if (entry != null) {
+                Object unboxed = entry.unbox();
+                if (unboxed != null) {
+                    checkType(entry.key, key);
+                    return unboxed;
+                }
+            }
+
+            // call the supplier outside of the map's bin lock, so it can use this map.
+            // if another thread puts a value first, the supplied value is discarded
+            Entry created = new Entry(key, def.get());
+            Entry[] replaced = new Entry[1];
+            Entry result = this.map.compute(key, (k, existing) -> {
+                // an expired value counts as absent
+                if (existing != null && !existing.shouldExpire()) {
+                    return existing;
+                }
+
+                if (existing == null) {
+                    onAdd(key);
+                }
+                replaced[0] = existing;
+                return created;
+            });
+
+            if (result == created) {
+                untrack(replaced[0]);
+                track(created);
+                return created.unbox();
+            }
+
+            // lost the race - use the value which was put instead, unless it has since expired
+            Object unboxed = result.unbox();
+            if (unboxed != null) {
+                checkType(result.key, key);
+                return unboxed;
+            }
+        }
+    }
+
+    @Override
+    public boolean has(@Nonnull MetadataKey<?> key) {
+        Objects.requireNonNull(key, "key");
+
+        Entry entry = this.map.get(key);
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.shouldExpire()) {
+            evict(entry);
+            return false;
+        }
+
+        return entry.key.getType().equals(key.getType());
+    }
+
+    @Override
+    public boolean remove(@Nonnull MetadataKey<?> key) {
+        Objects.requireNonNull(key, "key");
+
+        Entry[] removed = new Entry[1];
+        this.map.computeIfPresent(key, (k, existing) -> {
+            onRemove(k);
+            removed[0] = existing;
+            return null;
+        });
+        untrack(removed[0]);
+        return removed[0] != null;
+    }
+
+    @Override
+    public void clear() {
+        // remove keys individually, so the listener is notified
+        this.map.keySet().forEach(this::remove);
+    }
+
+    @Nonnull
+    @Override
+    public ImmutableMap<MetadataKey<?>, Object> asMap() {
+        ImmutableMap.Builder<MetadataKey<?>, Object> builder = ImmutableMap.builder();
+        for (Entry entry : this.map.values()) {
+            builder.put(entry.key, entry.value);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        // expired values are evicted by the expiry wheel, no need to sweep the map here
+        return this.map.isEmpty();
+    }
+
+    @Override
+    public void cleanup() {
+        for (Entry entry : this.map.values()) {
+            if (entry.shouldExpire()) {
+                evict(entry);
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link ExpiryWheel} when an entry tracked by this map is due to expire.
+     *
+     * @param entry the entry
+     */
+    void checkExpiry(Entry entry) {
+        // the entry has since been replaced or removed
+        if (this.map.get(entry.key) != entry) {
+            return;
+        }
+
+        if (entry.shouldExpire()) {
+            evict(entry);
+        } else {
+            // the expiry time has been pushed back (e.g. by an access), check again later
+            track(entry);
+        }
+    }
+
+    private void track(Entry entry) {
+        if (entry.value instanceof TransientValue<?>) {
+            entry.node = ExpiryWheel.INSTANCE.schedule(this, entry, ((TransientValue<?>) entry.value).getExpiryTime());
+        }
+    }
+
+    // unlinks a replaced or removed entry from the wheel, so it isn't retained until its deadline
+    private static void untrack(@Nullable Entry entry) {
+        if (entry != null && entry.node != null) {
+            ExpiryWheel.INSTANCE.cancel(entry.node);
+        }
+    }
+
+    private void evict(Entry entry) {
+        boolean[] evicted = new boolean[1];
+        this.map.computeIfPresent(entry.key, (k, existing) -> {
+            if (existing != entry) {
+                return existing;
+            }
+
+            onRemove(k);
+            evicted[0] = true;
+            return null;
+        });
+
+        if (!evicted[0]) {
+            return;
+        }
+
+        untrack(entry);
+        if (this.listener != null) {
+            this.listener.onExpire(entry.key, (TransientValue<?>) entry.value);
+        }
+    }
+
+    // called with the lock for the key held, so calls for a given key are never reordered
+    private void onAdd(MetadataKey<?> key) {
+        if (this.listener != null) {
+            this.listener.onAdd(key);
+        }
+    }
+
+    private void onRemove(MetadataKey<?> key) {
+        if (this.listener != null) {
+            this.listener.onRemove(key);
+        }
+    }
+
+    private static void checkType(MetadataKey<?> existing, MetadataKey<?> key) {
+        if (!existing.getType().equals(key.getType())) {
+            throw new ClassCastException("Cannot cast key with id " + key.getId() + " with type " + key.getType().getRawType() + " to existing stored type " + existing.getType().getRawType());
+        }
+    }
+
+    /**
+     * Receives callbacks when keys are added to or removed from the map.
+     */
+    interface Listener {
+
+        /**
+         * Called when a key which was not previously present is added to the map.
+         *
+         * @param key the key
+         */
+        void onAdd(MetadataKey<?> key);
+
+        /**
+         * Called when a key is removed from the map, for any reason.
+         *
+         * @param key the key
+         */
+        void onRemove(MetadataKey<?> key);
+
+        /**
+         * Called when a transient value has expired and been removed from the map.
+         *
+         * @param key the key the value was mapped to
+         * @param value the expired value
+         */
+        void onExpire(MetadataKey<?> key, TransientValue<?> value);
+
+    }
+
+    /**
+     * An entry in the map. Holds the key instance the value was stored with, so the
+     * type can be checked against later lookups.
+     */
+    static final class Entry {
+        private final MetadataKey<?> key;
+        private final Object value;
+
+        // the node tracking this entry in the expiry wheel, if any
+        private volatile ExpiryWheel.Node node;
+
+        private Entry(MetadataKey<?> key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Nullable
+        Object unbox() {
+            if (this.value instanceof TransientValue<?>) {
+                return ((TransientValue<?>) this.value).getOrNull();
+            }
+            return this.value;
+        }
+
+        boolean shouldExpire() {
+            return this.value instanceof TransientValue<?> && ((TransientValue<?>) this.value).shouldExpire();
+        }
+    }
+
+}
@@ -66,7 +66,7 @@ public class ExpireAfterAccessValue<T> implements TransientValue<T> {
 
     private final T value;
     private final long millis;
-    private long expireAt;
+    private volatile long expireAt;
 
     private ExpireAfterAccessValue(T value, long millis) {
         this.value = value;
@@ -91,4 +91,9 @@ public class ExpireAfterAccessValue<T> implements TransientValue<T> {
         return System.currentTimeMillis() > this.expireAt;
     }
 
+    @Override
+    public long getExpiryTime() {
+        return this.expireAt;
+    }
+
 }
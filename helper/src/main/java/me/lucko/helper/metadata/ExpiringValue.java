@@ -83,4 +83,9 @@ public final class ExpiringValue<T> implements TransientValue<T> {
         return System.currentTimeMillis() > this.expireAt;
     }
 
+    @Override
+    public long getExpiryTime() {
+        return this.expireAt;
+    }
+
 }
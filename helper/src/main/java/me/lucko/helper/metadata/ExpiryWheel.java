@@ -0,0 +1,303 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.metadata;
+
+import me.lucko.helper.Schedulers;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A hierarchical timing wheel which evicts expiring entries from {@link ConcurrentMetadataMap}s.
+ *
+ * <p>Only entries holding a {@link TransientValue} are tracked, so the cost of each
+ * tick is proportional to the number of entries due to expire, not to the total
+ * number of entries held in metadata maps.</p>
+ *
+ * <p>The wheel has four levels of 64 slots, with a resolution of one game tick. Entries
+ * due further in the future than the top level can represent are held in an overflow
+ * list, and are re-inserted whenever the top level wraps around.</p>
+ *
+ * <p>Nodes only hold weak references to the map and entry they track. Nodes for
+ * entries which are replaced or removed are unlinked via {@link #cancel(Node)}, and
+ * nodes for entries which are garbage collected (e.g. because the map holding them
+ * was dropped) are unlinked once the collection is observed.</p>
+ */
+final class ExpiryWheel {
+
+    /**
+     * The shared instance, used by all metadata maps.
+     */
+    static final ExpiryWheel INSTANCE = new ExpiryWheel();
+
+    /**
+     * The duration of a single tick of the wheel, in milliseconds.
+     */
+    private static final long TICK_MILLIS = 50L;
+
+    /**
+     * How often values without a known expiry time are checked, in milliseconds.
+     */
+    private static final long POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    // entries waiting to be inserted into the wheel. populated by any thread,
+    // and drained by the thread advancing the wheel
+    private final Queue<Node> pending = new ConcurrentLinkedQueue<>();
+
+    // nodes which should be unlinked from the wheel before their deadline
+    private final Queue<Node> cancelled = new ConcurrentLinkedQueue<>();
+    private final ReferenceQueue<ConcurrentMetadataMap.Entry> collected = new ReferenceQueue<>();
+
+    // the following fields are guarded by the instance lock
+    private final Node[][] levels = new Node[LEVELS][LEVEL_SIZE];
+    private Node overflow = null;
+    private final long origin = System.currentTimeMillis();
+    private long tick = 0;
+
+    private ExpiryWheel() {
+
+    }
+
+    /**
+     * Schedules an entry to be checked for expiry.
+     *
+     * @param map the map containing the entry
+     * @param entry the entry
+     * @param expiryTime the time the entry is due to expire, or -1 if unknown
+     * @return the node tracking the entry
+     */
+    Node schedule(ConcurrentMetadataMap map, ConcurrentMetadataMap.Entry entry, long expiryTime) {
+        if (expiryTime == -1) {
+            expiryTime = System.currentTimeMillis() + POLL_INTERVAL_MILLIS;
+        }
+
+        // round up, so the entry has definitely expired by the time it is checked
+        long deadline = (Math.max(0, expiryTime + 1 - this.origin) + TICK_MILLIS - 1) / TICK_MILLIS;
+        Node node = new Node(map, entry, deadline, this.collected);
+        this.pending.add(node);
+        ensureStarted();
+        return node;
+    }
+
+    /**
+     * Stops tracking the entry held by the given node, for example because it has
+     * been replaced or removed from its map.
+     *
+     * @param node the node
+     */
+    void cancel(Node node) {
+        if (node.cancelled) {
+            return;
+        }
+        node.cancelled = true;
+        this.cancelled.add(node);
+    }
+
+    private void ensureStarted() {
+        if (this.started.get()) {
+            return;
+        }
+
+        if (!this.started.getAndSet(true)) {
+            Schedulers.builder()
+                    .async()
+                    .afterAndEvery(1)
+                    .run(() -> advance(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Advances the wheel up to the given time, evicting any entries which are due.
+     *
+     * @param now the current time in milliseconds
+     */
+    synchronized void advance(long now) {
+        Node node;
+        while ((node = this.pending.poll()) != null) {
+            if (!node.cancelled) {
+                insert(node);
+            }
+        }
+        while ((node = this.cancelled.poll()) != null) {
+            unlink(node);
+        }
+        Reference<? extends ConcurrentMetadataMap.Entry> ref;
+        while ((ref = this.collected.poll()) != null) {
+            unlink((Node) ref);
+        }
+
+        long target = toTick(now);
+        while (this.tick < target) {
+            this.tick++;
+
+            if ((this.tick & LEVEL_MASK) == 0) {
+                cascade(1);
+            }
+
+            int slot = (int) (this.tick & LEVEL_MASK);
+            Node head = this.levels[0][slot];
+            this.levels[0][slot] = null;
+            fire(head);
+        }
+    }
+
+    private long toTick(long time) {
+        return Math.max(0, time - this.origin) / TICK_MILLIS;
+    }
+
+    private void insert(Node node) {
+        long deadline = node.deadline;
+        if (deadline <= this.tick) {
+            node.prev = null;
+            node.next = null;
+            fire(node);
+            return;
+        }
+
+        // place the node in the lowest level which shares the same higher-order
+        // bits as the current tick - it will be cascaded down as the wheel turns
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = LEVEL_BITS * (level + 1);
+            if ((deadline >> shift) == (this.tick >> shift)) {
+                int slot = (int) ((deadline >> (LEVEL_BITS * level)) & LEVEL_MASK);
+                this.levels[level][slot] = link(node, this.levels[level][slot], level, slot);
+                return;
+            }
+        }
+
+        this.overflow = link(node, this.overflow, LEVELS, 0);
+    }
+
+    private static Node link(Node node, Node head, int level, int slot) {
+        node.level = level;
+        node.slot = slot;
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        return node;
+    }
+
+    private void unlink(Node node) {
+        if (node.level == -1) {
+            return;
+        }
+
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else if (node.level == LEVELS) {
+            this.overflow = node.next;
+        } else {
+            this.levels[node.level][node.slot] = node.next;
+        }
+
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+
+        node.prev = null;
+        node.next = null;
+        node.level = -1;
+    }
+
+    private void cascade(int level) {
+        Node head;
+        if (level == LEVELS) {
+            head = this.overflow;
+            this.overflow = null;
+        } else {
+            int slot = (int) ((this.tick >> (LEVEL_BITS * level)) & LEVEL_MASK);
+            if (slot == 0) {
+                cascade(level + 1);
+            }
+
+            head = this.levels[level][slot];
+            this.levels[level][slot] = null;
+        }
+
+        while (head != null) {
+            Node next = head.next;
+            head.level = -1;
+            insert(head);
+            head = next;
+        }
+    }
+
+    private static void fire(Node head) {
+        while (head != null) {
+            Node next = head.next;
+            head.prev = null;
+            head.next = null;
+            head.level = -1;
+
+            ConcurrentMetadataMap map = head.map.get();
+            ConcurrentMetadataMap.Entry entry = head.get();
+            if (head.cancelled || map == null || entry == null) {
+                head = next;
+                continue;
+            }
+
+            try {
+                map.checkExpiry(entry);
+            } catch (Exception e) {
+                new RuntimeException("Exception whilst evicting expired metadata", e).printStackTrace();
+            }
+            head = next;
+        }
+    }
+
+    static final class Node extends WeakReference<ConcurrentMetadataMap.Entry> {
+        private final WeakReference<ConcurrentMetadataMap> map;
+        private final long deadline;
+        private volatile boolean cancelled = false;
+
+        // the following fields are guarded by the wheel's lock
+        private int level = -1;
+        private int slot;
+        private Node prev;
+        private Node next;
+
+        private Node(ConcurrentMetadataMap map, ConcurrentMetadataMap.Entry entry, long deadline, ReferenceQueue<ConcurrentMetadataMap.Entry> queue) {
+            super(entry, queue);
+            this.map = new WeakReference<>(map);
+            this.deadline = deadline;
+        }
+    }
+
+}
@@ -27,11 +27,13 @@ package me.lucko.helper.metadata;
 
 import me.lucko.helper.Events;
 import me.lucko.helper.Schedulers;
+import me.lucko.helper.event.filter.EventFilters;
 import me.lucko.helper.metadata.type.BlockMetadataRegistry;
 import me.lucko.helper.metadata.type.EntityMetadataRegistry;
 import me.lucko.helper.metadata.type.PlayerMetadataRegistry;
 import me.lucko.helper.metadata.type.WorldMetadataRegistry;
 import me.lucko.helper.serialize.BlockPosition;
+import me.lucko.helper.serialize.ChunkPosition;
 
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -39,6 +41,7 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 
 import java.util.Map;
 import java.util.Objects;
@@ -68,6 +71,12 @@ public final class Metadata {
             Events.subscribe(PlayerQuitEvent.class, EventPriority.MONITOR)
                     .handler(e -> StandardMetadataRegistries.PLAYER.remove(e.getPlayer().getUniqueId()));
 
+            // remove block metadata when chunks unload, if enabled
+            Events.subscribe(ChunkUnloadEvent.class, EventPriority.MONITOR)
+                    .filter(EventFilters.ignoreCancelled())
+                    .filter(e -> StandardMetadataRegistries.BLOCK.isRemovedOnChunkUnload())
+                    .handler(e -> StandardMetadataRegistries.BLOCK.removeChunk(ChunkPosition.of(e.getChunk())));
+
             // cache housekeeping task
             Schedulers.builder()
                     .async()
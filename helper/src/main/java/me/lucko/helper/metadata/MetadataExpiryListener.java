@@ -0,0 +1,55 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.metadata;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A listener which is notified when a {@link TransientValue} held in a
+ * {@link MetadataRegistry} expires.
+ *
+ * @param <T> the registry holder type
+ */
+@FunctionalInterface
+public interface MetadataExpiryListener<T> {
+
+    /**
+     * Called when a transient value expires and is removed from the metadata map
+     * held for the given object.
+     *
+     * <p>This method is called on whichever thread evicts the value. This is usually
+     * the thread advancing the expiry wheel, but may be a thread which accessed the
+     * expired value (e.g. via {@link MetadataMap#get(MetadataKey)} or
+     * {@link MetadataMap#has(MetadataKey)}), including the server thread.
+     * Implementations should therefore be thread safe, and should not block.</p>
+     *
+     * @param holder the object the metadata map belongs to
+     * @param key the key the value was mapped to
+     * @param value the expired value
+     */
+    void onExpiry(@Nonnull T holder, @Nonnull MetadataKey<?> key, @Nonnull TransientValue<?> value);
+
+}
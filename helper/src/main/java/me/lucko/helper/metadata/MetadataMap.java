@@ -37,15 +37,35 @@ import javax.annotation.Nullable;
 /**
  * A map which holds {@link MetadataKey}s, and maps them to persistent or transient (expiring / weak) values.
  *
- * Transient values will only be removed during map maintenance, which occurs during a housekeeping task running
- * every minute. Method signatures for the {@link #has(MetadataKey)} and equivalent remain accurate though.
+ * Transient values are removed from the map shortly after they expire, by a task which tracks only expiring
+ * values. Method signatures for the {@link #has(MetadataKey)} and equivalent remain accurate though.
  *
  * @see TransientValue
  */
 public interface MetadataMap {
 
+    /**
+     * Creates a new {@link MetadataMap}.
+     *
+     * <p>The returned map is hashed on the key id and reads do not take a lock.</p>
+     *
+     * @return a new metadata map
+     */
     @Nonnull
     static MetadataMap create() {
+        return new ConcurrentMetadataMap();
+    }
+
+    /**
+     * Creates a new {@link MetadataMap} guarded by a single lock.
+     *
+     * <p>Every read scans the whole map, expiring transient values as it goes. Prefer
+     * {@link #create()} unless the eager expiry behaviour is required.</p>
+     *
+     * @return a new metadata map
+     */
+    @Nonnull
+    static MetadataMap createSynchronized() {
         return new MetadataMapImpl();
     }
 
@@ -165,6 +185,9 @@ public interface MetadataMap {
     /**
      * Gets a value for the given key, or puts and returns the default if one isn't present.
      *
+     * <p>The supplier is not called while holding a lock on the map, so if the key is put
+     * concurrently, it may be called even though its value is discarded.</p>
+     *
      * @param key the metadata key to get
      * @param def the default value
      * @param <T> the value type
@@ -177,6 +200,9 @@ public interface MetadataMap {
     /**
      * Gets a value for the given key, or puts and returns the default if one isn't present.
      *
+     * <p>The supplier is not called while holding a lock on the map, so if the key is put
+     * concurrently, it may be called even though its value is discarded.</p>
+     *
      * @param key the metadata key to get
      * @param def the default value
      * @param <T> the value type
@@ -218,6 +244,8 @@ public interface MetadataMap {
     /**
      * Returns if the map is empty
      *
+     * <p>Values which have expired but are yet to be evicted are counted.</p>
+     *
      * @return true if the map is empty
      */
     boolean isEmpty();
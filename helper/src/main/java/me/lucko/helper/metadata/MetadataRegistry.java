@@ -25,6 +25,8 @@
 
 package me.lucko.helper.metadata;
 
+import me.lucko.helper.terminable.Terminable;
+
 import java.util.Optional;
 
 import javax.annotation.Nonnull;
@@ -68,4 +70,19 @@ public interface MetadataRegistry<T> {
      */
     void cleanup();
 
+    /**
+     * Registers a listener to be notified when transient values held in this
+     * registry expire.
+     *
+     * <p>The default implementation throws {@link UnsupportedOperationException}.</p>
+     *
+     * @param listener the listener
+     * @return a terminable which unregisters the listener when closed
+     * @throws UnsupportedOperationException if the registry does not support expiry listeners
+     */
+    @Nonnull
+    default Terminable addExpiryListener(@Nonnull MetadataExpiryListener<? super T> listener) {
+        throw new UnsupportedOperationException("This registry does not support expiry listeners");
+    }
+
 }
@@ -31,12 +31,10 @@ import me.lucko.helper.metadata.type.BlockMetadataRegistry;
 import me.lucko.helper.metadata.type.EntityMetadataRegistry;
 import me.lucko.helper.metadata.type.PlayerMetadataRegistry;
 import me.lucko.helper.metadata.type.WorldMetadataRegistry;
-import me.lucko.helper.serialize.BlockPosition;
 import me.lucko.helper.utils.Players;
 
 import org.bukkit.Bukkit;
 import org.bukkit.World;
-import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 
@@ -56,7 +54,7 @@ final class StandardMetadataRegistries {
 
     public static final PlayerMetadataRegistry PLAYER = new PlayerRegistry();
     public static final EntityMetadataRegistry ENTITY = new EntityRegistry();
-    public static final BlockMetadataRegistry BLOCK = new BlockRegistry();
+    public static final BlockMetadataRegistry BLOCK = new ChunkedBlockMetadataRegistry();
     public static final WorldMetadataRegistry WORLD = new WorldRegistry();
 
     private static final MetadataRegistry<?>[] VALUES = new MetadataRegistry[]{PLAYER, ENTITY, BLOCK, WORLD};
@@ -86,12 +84,12 @@ final class StandardMetadataRegistries {
         public <K> Map<Player, K> getAllWithKey(@Nonnull MetadataKey<K> key) {
             Objects.requireNonNull(key, "key");
             ImmutableMap.Builder<Player, K> ret = ImmutableMap.builder();
-            this.cache.asMap().forEach((uuid, map) -> map.get(key).ifPresent(t -> {
+            forEachWithKey(key, (uuid, t) -> {
                 Player player = Players.getNullable(uuid);
                 if (player != null) {
                     ret.put(player, t);
                 }
-            }));
+            });
             return ret.build();
         }
     }
@@ -117,38 +115,12 @@ final class StandardMetadataRegistries {
         public <K> Map<Entity, K> getAllWithKey(@Nonnull MetadataKey<K> key) {
             Objects.requireNonNull(key, "key");
             ImmutableMap.Builder<Entity, K> ret = ImmutableMap.builder();
-            this.cache.asMap().forEach((uuid, map) -> map.get(key).ifPresent(t -> {
+            forEachWithKey(key, (uuid, t) -> {
                 Entity entity = Bukkit.getEntity(uuid);
                 if (entity != null) {
                     ret.put(entity, t);
                 }
-            }));
-            return ret.build();
-        }
-    }
-
-    private static final class BlockRegistry extends AbstractMetadataRegistry<BlockPosition> implements BlockMetadataRegistry {
-
-        @Nonnull
-        @Override
-        public MetadataMap provide(@Nonnull Block block) {
-            Objects.requireNonNull(block, "block");
-            return provide(BlockPosition.of(block));
-        }
-
-        @Nonnull
-        @Override
-        public Optional<MetadataMap> get(@Nonnull Block block) {
-            Objects.requireNonNull(block, "block");
-            return get(BlockPosition.of(block));
-        }
-
-        @Nonnull
-        @Override
-        public <K> Map<BlockPosition, K> getAllWithKey(@Nonnull MetadataKey<K> key) {
-            Objects.requireNonNull(key, "key");
-            ImmutableMap.Builder<BlockPosition, K> ret = ImmutableMap.builder();
-            this.cache.asMap().forEach((pos, map) -> map.get(key).ifPresent(t -> ret.put(pos, t)));
+            });
             return ret.build();
         }
     }
@@ -174,12 +146,12 @@ final class StandardMetadataRegistries {
         public <K> Map<World, K> getAllWithKey(@Nonnull MetadataKey<K> key) {
             Objects.requireNonNull(key, "key");
             ImmutableMap.Builder<World, K> ret = ImmutableMap.builder();
-            this.cache.asMap().forEach((uuid, map) -> map.get(key).ifPresent(t -> {
+            forEachWithKey(key, (uuid, t) -> {
                 World world = Bukkit.getWorld(uuid);
                 if (world != null) {
                     ret.put(world, t);
                 }
-            }));
+            });
             return ret.build();
         }
     }
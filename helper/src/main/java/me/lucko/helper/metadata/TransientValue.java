@@ -49,4 +49,17 @@ public interface TransientValue<T> {
      */
     boolean shouldExpire();
 
+    /**
+     * Returns the time, in milliseconds since the epoch, at which this value is
+     * next due to expire.
+     *
+     * <p>Values which do not expire at a known time (for example those which are
+     * weakly referenced) return -1, and are instead polled periodically.</p>
+     *
+     * @return the expiry time, or -1 if unknown
+     */
+    default long getExpiryTime() {
+        return -1;
+    }
+
 }
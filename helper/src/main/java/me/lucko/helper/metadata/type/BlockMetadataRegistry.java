@@ -29,6 +29,8 @@ import me.lucko.helper.metadata.MetadataKey;
 import me.lucko.helper.metadata.MetadataMap;
 import me.lucko.helper.metadata.MetadataRegistry;
 import me.lucko.helper.serialize.BlockPosition;
+import me.lucko.helper.serialize.ChunkPosition;
+import me.lucko.helper.serialize.ChunkRegion;
 
 import org.bukkit.block.Block;
 
@@ -71,4 +73,59 @@ public interface BlockMetadataRegistry extends MetadataRegistry<BlockPosition> {
     @Nonnull
     <K> Map<BlockPosition, K> getAllWithKey(@Nonnull MetadataKey<K> key);
 
+    /**
+     * Gets the {@link MetadataMap}s held for blocks in the given chunk.
+     *
+     * @param chunk the chunk
+     * @return an immutable map of blocks to metadata maps
+     */
+    @Nonnull
+    Map<BlockPosition, MetadataMap> getAllInChunk(@Nonnull ChunkPosition chunk);
+
+    /**
+     * Gets the {@link MetadataMap}s held for blocks in the given region.
+     *
+     * @param region the region
+     * @return an immutable map of blocks to metadata maps
+     */
+    @Nonnull
+    Map<BlockPosition, MetadataMap> getAllInRegion(@Nonnull ChunkRegion region);
+
+    /**
+     * Gets a map of the blocks in the given chunk with a given metadata key
+     *
+     * @param chunk the chunk
+     * @param key the key
+     * @param <K> the key type
+     * @return an immutable map of blocks to key value
+     */
+    @Nonnull
+    <K> Map<BlockPosition, K> getAllWithKeyInChunk(@Nonnull ChunkPosition chunk, @Nonnull MetadataKey<K> key);
+
+    /**
+     * Deletes the {@link MetadataMap}s held for all blocks in the given chunk.
+     *
+     * @param chunk the chunk
+     */
+    void removeChunk(@Nonnull ChunkPosition chunk);
+
+    /**
+     * Gets if metadata held for blocks in a chunk is deleted when the chunk unloads.
+     *
+     * @return true if metadata is removed on chunk unload
+     */
+    boolean isRemovedOnChunkUnload();
+
+    /**
+     * Sets if metadata held for blocks in a chunk should be deleted when the chunk unloads.
+     *
+     * <p>Defaults to false, meaning metadata is retained until it is explicitly removed.
+     * Plugins wishing to persist metadata before it is removed can read it using
+     * {@link #getAllInChunk(ChunkPosition)} from a ChunkUnloadEvent handler with a
+     * priority lower than MONITOR.</p>
+     *
+     * @param removeOnChunkUnload if metadata should be removed on chunk unload
+     */
+    void setRemovedOnChunkUnload(boolean removeOnChunkUnload);
+
 }
@@ -27,6 +27,7 @@ package me.lucko.helper.network;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.gson.JsonElement;
 import me.lucko.helper.Schedulers;
 import me.lucko.helper.cooldown.Cooldown;
@@ -35,11 +36,14 @@ import me.lucko.helper.messaging.Channel;
 import me.lucko.helper.messaging.InstanceData;
 import me.lucko.helper.messaging.Messenger;
 import me.lucko.helper.network.event.NetworkEvent;
+import me.lucko.helper.network.event.PlayerConnectEvent;
+import me.lucko.helper.network.event.PlayerDisconnectEvent;
 import me.lucko.helper.network.event.ServerConnectEvent;
 import me.lucko.helper.network.event.ServerDisconnectEvent;
 import me.lucko.helper.network.event.ServerStatusEvent;
 import me.lucko.helper.network.metadata.ServerMetadata;
 import me.lucko.helper.network.metadata.ServerMetadataProvider;
+import me.lucko.helper.network.metadata.ServerMetadataProviderMetrics;
 import me.lucko.helper.network.metadata.TpsMetadataProvider;
 import me.lucko.helper.profiles.Profile;
 import me.lucko.helper.terminable.composite.CompositeTerminable;
@@ -51,29 +55,83 @@ import net.kyori.event.SimpleEventBus;
 import org.bukkit.Bukkit;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nonnull;
 
+/**
+ * Basic implementation of {@link Network}.
+ *
+ * <p>Each server broadcasts its status every 3 seconds. Most status messages only contain
+ * the changes (players joining and leaving, and changed metadata) since the previous message,
+ * and a full snapshot is sent every {@link #FULL_STATUS_INTERVAL} messages. Status messages
+ * are numbered, and if a server receives a change it can't apply because it missed an earlier
+ * message, it requests a full snapshot from the sender.</p>
+ *
+ * <p>These status messages are sent on the <code>hnet-status-v2</code> channel. Servers running
+ * older versions only understand full snapshots on the original <code>hnet-status</code>
+ * channel. While a network is being upgraded, set the <code>helper.network.legacy-status</code>
+ * system property to <code>true</code> to also send a full snapshot on that channel with every
+ * status message, and to apply the snapshots received from older servers.</p>
+ *
+ * <p>An index of the players online in the network is updated as status messages are
+ * received, so lookups by player don't need to search each server.</p>
+ */
 public class AbstractNetwork implements Network {
+    /** The number of status messages sent between each full snapshot */
+    private static final int FULL_STATUS_INTERVAL = 10;
+
+    /** The channel versioned status messages, including deltas, are sent on */
+    private static final String STATUS_CHANNEL = "hnet-status-v2";
+    /** The channel full snapshots are sent on for servers running older versions. To be removed in the next release. */
+    private static final String LEGACY_STATUS_CHANNEL = "hnet-status";
+    /** If status messages should also be exchanged with servers running older versions */
+    private static final boolean LEGACY_STATUS = Boolean.getBoolean("helper.network.legacy-status");
+
     protected final CompositeTerminable compositeTerminable = CompositeTerminable.create();
 
     protected final Messenger messenger;
     protected final InstanceData instanceData;
 
     private final EventBus<NetworkEvent> eventBus = new SimpleEventBus<>(NetworkEvent.class);
-    private final List<ServerMetadataProvider> metadataProviders = new CopyOnWriteArrayList<>();
+    private final List<MetadataSampler> metadataProviders = new CopyOnWriteArrayList<>();
     private final Map<String, ServerImpl> servers = new ConcurrentHashMap<>();
 
+    // index of the players online in the network
+    private final Map<UUID, IndexedPlayer> players = new ConcurrentHashMap<>();
+    private final Map<UUID, Profile> playersView = Collections.unmodifiableMap(Maps.transformValues(this.players, p -> p.profile));
+    private final Map<String, UUID> playersByName = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> groupPlayerCounts = new ConcurrentHashMap<>();
+
+    // identifies this run of the server, so receivers don't apply changes against an older snapshot.
+    // never zero, which is the epoch of messages from servers running older versions
+    private final long statusEpoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    // the version of the last status message sent, and the state it described
+    private long statusVersion = 0;
+    private Map<UUID, String> sentPlayers = Collections.emptyMap();
+    private Map<String, JsonElement> sentMetadata = Collections.emptyMap();
+    // if a full snapshot has been requested by another server
+    private volatile boolean fullStatusRequested = false;
+
     public AbstractNetwork(Messenger messenger, InstanceData instanceData) {
         this.messenger = messenger;
         this.instanceData = instanceData;
@@ -94,6 +152,11 @@ public class AbstractNetwork implements Network {
                     if (!instanceData.getId().equals(message.id)) {
                         postEvent(new ServerDisconnectEvent(message.id, message.reason));
                     }
+                    ServerImpl server = this.servers.get(message.id);
+                    if (server != null) {
+                        server.markDisconnected();
+                        updateIndex(server);
+                    }
                     break;
             }
         }).bindWith(this.compositeTerminable);
@@ -124,25 +187,70 @@ public class AbstractNetwork implements Network {
         EventMessage connectionMessage = new EventMessage();
         connectionMessage.id = instanceData.getId();
         connectionMessage.type = "connect";
-        connectionMessage.status = produceStatusMessage();
+        connectionMessage.status = produceStatusMessage(true);
         eventsChannel.sendMessage(connectionMessage);
 
 
+        /*
+         * Handle requests for full status snapshots.
+         * These are sent via the 'hnet-resync' channel.
+         */
+
+        Channel<ResyncMessage> resyncChannel = messenger.getChannel("hnet-resync", ResyncMessage.class);
+        resyncChannel.newAgent((agent, message) -> {
+            if (instanceData.getId().equals(message.target)) {
+                this.fullStatusRequested = true;
+            }
+        }).bindWith(this.compositeTerminable);
+
+
         /*
          * Handle status messages.
-         * These are sent via the 'hnet-status' channel.
+         * These are sent via the 'hnet-status-v2' channel, and if enabled, as full
+         * snapshots via the 'hnet-status' channel for servers running older versions.
          */
 
-        Channel<StatusMessage> statusChannel = messenger.getChannel("hnet-status", StatusMessage.class);
+        Channel<StatusMessage> statusChannel = messenger.getChannel(STATUS_CHANNEL, StatusMessage.class);
+        Channel<StatusMessage> legacyStatusChannel = LEGACY_STATUS ? messenger.getChannel(LEGACY_STATUS_CHANNEL, StatusMessage.class) : null;
         // incoming
-        statusChannel.newAgent((agent, message) -> handleIncomingStatusMessage(message)).bindWith(this.compositeTerminable);
+        statusChannel.newAgent((agent, message) -> {
+            ServerImpl server = handleIncomingStatusMessage(message);
+            if (server.needsResync()) {
+                ResyncMessage resync = new ResyncMessage();
+                resync.target = message.id;
+                resyncChannel.sendMessage(resync);
+            }
+        }).bindWith(this.compositeTerminable);
+        if (legacyStatusChannel != null) {
+            legacyStatusChannel.newAgent((agent, message) -> {
+                // servers running this version send the same status on the v2 channel
+                if (message.epoch == 0) {
+                    handleIncomingStatusMessage(message);
+                }
+            }).bindWith(this.compositeTerminable);
+        }
         // outgoing
         Schedulers.builder()
                 .async()
                 .afterAndEvery(3, TimeUnit.SECONDS)
                 .run(() -> {
-                    StatusMessage msg = produceStatusMessage();
-                    statusChannel.sendMessage(msg);
+                    if (legacyStatusChannel == null) {
+                        statusChannel.sendMessage(produceStatusMessage(false));
+                    } else {
+                        StatusMessage msg;
+                        StatusMessage snapshot;
+                        synchronized (this) {
+                            msg = produceStatusMessage(false);
+                            snapshot = msg.delta ? toSnapshot(msg) : msg;
+                        }
+                        statusChannel.sendMessage(msg);
+                        legacyStatusChannel.sendMessage(snapshot);
+                    }
+
+                    // remove the players of servers which have stopped responding from the index
+                    for (ServerImpl server : this.servers.values()) {
+                        updateIndex(server);
+                    }
                 })
                 .bindWith(this.compositeTerminable);
     }
@@ -160,40 +268,153 @@ public class AbstractNetwork implements Network {
         }
     }
 
-    private StatusMessage produceStatusMessage() {
+    private synchronized StatusMessage produceStatusMessage(boolean forceFull) {
+        boolean full = forceFull || this.fullStatusRequested || this.statusVersion % FULL_STATUS_INTERVAL == 0;
+
         StatusMessage msg = new StatusMessage();
         msg.time = System.currentTimeMillis();
         msg.id = this.instanceData.getId();
+        msg.epoch = this.statusEpoch;
+        msg.version = ++this.statusVersion;
         msg.groups = new ArrayList<>(this.instanceData.getGroups());
 
-        msg.players = new HashMap<>();
-        Players.forEach(p -> msg.players.put(p.getUniqueId(), p.getName()));
+        Map<UUID, String> players = new HashMap<>();
+        Players.forEach(p -> players.put(p.getUniqueId(), p.getName()));
 
         msg.maxPlayers = Bukkit.getMaxPlayers();
         msg.whitelisted = Bukkit.hasWhitelist();
 
-        // collect server metadata
-        msg.metadata = new HashMap<>();
-        for (ServerMetadataProvider metadataProvider : this.metadataProviders) {
-            try {
-                for (ServerMetadata metadata : metadataProvider.provide()) {
-                    msg.metadata.put(metadata.key(), metadata.data());
-                }
-            } catch (Exception e) {
-                new RuntimeException("Exception calling ServerMetadataProvider " + metadataProvider, e).printStackTrace();
-            }
+        // collect the latest server metadata, and start sampling providers which are due
+        Map<String, JsonElement> metadataValues = new HashMap<>();
+        for (MetadataSampler sampler : this.metadataProviders) {
+            metadataValues.putAll(sampler.values);
+            sampler.sampleIfDue();
         }
 
+        if (full) {
+            this.fullStatusRequested = false;
+            msg.players = players;
+            msg.metadata = metadataValues;
+        } else {
+            msg.delta = true;
+            msg.players = new HashMap<>();
+            msg.leftPlayers = new ArrayList<>();
+            diff(this.sentPlayers, players, msg.players, msg.leftPlayers);
+            msg.metadata = new HashMap<>();
+            msg.removedMetadata = new ArrayList<>();
+            diff(this.sentMetadata, metadataValues, msg.metadata, msg.removedMetadata);
+        }
+
+        this.sentPlayers = players;
+        this.sentMetadata = metadataValues;
+        return msg;
+    }
+
+    /**
+     * Creates a full snapshot equivalent to the given delta, using the state it was
+     * produced from.
+     *
+     * @param delta the delta status message
+     * @return a full status message
+     */
+    private synchronized StatusMessage toSnapshot(StatusMessage delta) {
+        StatusMessage msg = new StatusMessage();
+        msg.time = delta.time;
+        msg.id = delta.id;
+        msg.epoch = delta.epoch;
+        msg.version = delta.version;
+        msg.groups = delta.groups;
+        msg.maxPlayers = delta.maxPlayers;
+        msg.whitelisted = delta.whitelisted;
+        msg.players = this.sentPlayers;
+        msg.metadata = this.sentMetadata;
         return msg;
     }
 
+    private static <K, V> void diff(Map<K, V> previous, Map<K, V> current, Map<K, V> changed, List<K> removed) {
+        for (Map.Entry<K, V> entry : current.entrySet()) {
+            if (!Objects.equals(previous.get(entry.getKey()), entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (K key : previous.keySet()) {
+            if (!current.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+    }
+
     private ServerImpl handleIncomingStatusMessage(StatusMessage message) {
         ServerImpl server = this.servers.computeIfAbsent(message.id, ServerImpl::new);
         server.loadData(message);
+        updateIndex(server);
         postEvent(new ServerStatusEvent(server));
         return server;
     }
 
+    /**
+     * Updates the player index to match the current state of the given server.
+     *
+     * @param server the server
+     */
+    private void updateIndex(ServerImpl server) {
+        List<NetworkEvent> events = new ArrayList<>();
+
+        synchronized (server) {
+            Map<UUID, Profile> indexed = server.indexedPlayers;
+            Set<String> indexedGroups = server.indexedGroups;
+            Map<UUID, Profile> current = server.isOnline() && !server.disconnected ? server.players : ImmutableMap.of();
+            Set<String> currentGroups = server.groups;
+            if (current == indexed && currentGroups == indexedGroups) {
+                return;
+            }
+
+            for (Map.Entry<UUID, Profile> player : indexed.entrySet()) {
+                if (!current.containsKey(player.getKey())) {
+                    unindexPlayer(player.getValue(), server);
+                    events.add(new PlayerDisconnectEvent(player.getValue(), server));
+                }
+            }
+            for (Map.Entry<UUID, Profile> player : current.entrySet()) {
+                if (!indexed.containsKey(player.getKey())) {
+                    indexPlayer(player.getValue(), server);
+                    events.add(new PlayerConnectEvent(player.getValue(), server));
+                }
+            }
+
+            for (String group : indexedGroups) {
+                this.groupPlayerCounts.computeIfAbsent(group, g -> new AtomicInteger()).addAndGet(-indexed.size());
+            }
+            for (String group : currentGroups) {
+                this.groupPlayerCounts.computeIfAbsent(group, g -> new AtomicInteger()).addAndGet(current.size());
+            }
+
+            server.indexedPlayers = current;
+            server.indexedGroups = currentGroups;
+        }
+
+        for (NetworkEvent event : events) {
+            try {
+                postEvent(event);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void indexPlayer(Profile profile, ServerImpl server) {
+        this.players.put(profile.getUniqueId(), new IndexedPlayer(profile, server));
+        profile.getName().ifPresent(name -> this.playersByName.put(name.toLowerCase(Locale.ROOT), profile.getUniqueId()));
+    }
+
+    private void unindexPlayer(Profile profile, ServerImpl server) {
+        // the player may have already been indexed on the server they moved to
+        this.players.computeIfPresent(profile.getUniqueId(), (uuid, player) -> player.server == server ? null : player);
+        if (!this.players.containsKey(profile.getUniqueId())) {
+            profile.getName().ifPresent(name -> this.playersByName.remove(name.toLowerCase(Locale.ROOT), profile.getUniqueId()));
+        }
+    }
+
     @Override
     public Map<String, Server> getServers() {
         return Collections.unmodifiableMap(this.servers);
@@ -201,21 +422,50 @@ public class AbstractNetwork implements Network {
 
     @Override
     public Map<UUID, Profile> getOnlinePlayers() {
-        Map<UUID, Profile> players = new HashMap<>();
-        for (Server server : this.servers.values()) {
-            players.putAll(server.getOnlinePlayers());
+        return this.playersView;
+    }
+
+    @Override
+    public Optional<Server> getPlayerServer(UUID uniqueId) {
+        Objects.requireNonNull(uniqueId, "uniqueId");
+        IndexedPlayer player = this.players.get(uniqueId);
+        return player == null ? Optional.empty() : Optional.of(player.server);
+    }
+
+    @Override
+    public Optional<Profile> getPlayer(String name) {
+        Objects.requireNonNull(name, "name");
+        UUID uniqueId = this.playersByName.get(name.toLowerCase(Locale.ROOT));
+        if (uniqueId == null) {
+            return Optional.empty();
         }
-        return Collections.unmodifiableMap(players);
+        IndexedPlayer player = this.players.get(uniqueId);
+        return player == null ? Optional.empty() : Optional.of(player.profile);
+    }
+
+    @Override
+    public int getGroupPlayerCount(String group) {
+        Objects.requireNonNull(group, "group");
+        AtomicInteger count = this.groupPlayerCounts.get(group);
+        return count == null ? 0 : count.get();
     }
 
     @Override
     public int getOverallPlayerCount() {
-        return this.servers.values().stream().mapToInt(s -> s.getOnlinePlayers().size()).sum();
+        return this.players.size();
     }
 
     @Override
     public void registerMetadataProvider(ServerMetadataProvider metadataProvider) {
-        this.metadataProviders.add(metadataProvider);
+        Objects.requireNonNull(metadataProvider, "metadataProvider");
+        MetadataSampler sampler = new MetadataSampler(metadataProvider);
+        this.metadataProviders.add(sampler);
+        sampler.sampleIfDue();
+    }
+
+    @Override
+    public Collection<ServerMetadataProviderMetrics> getMetadataProviderMetrics() {
+        return Collections.unmodifiableList(this.metadataProviders);
     }
 
     @Override
@@ -233,12 +483,24 @@ public class AbstractNetwork implements Network {
 
         private final String id;
 
+        // the epoch and version of the last status message applied
+        private long epoch = 0;
+        private long version = 0;
+        // if a status message couldn't be applied, and a full snapshot is required
+        private boolean needsResync = false;
+        // if the server has sent a disconnect message since its last status message
+        private boolean disconnected = false;
+
+        // the players and groups currently counted in the network index
+        private Map<UUID, Profile> indexedPlayers = ImmutableMap.of();
+        private Set<String> indexedGroups = ImmutableSet.of();
+
         private long lastPing = 0;
         private Set<String> groups = ImmutableSet.of();
         private Map<UUID, Profile> players = ImmutableMap.of();
         private int maxPlayers = 0;
         private boolean whitelisted = false;
-        private Map<String, JsonElement> metadata;
+        private Map<String, JsonElement> metadata = ImmutableMap.of();
 
         private final Cooldown timeSyncWarningCooldown = Cooldown.of(5, TimeUnit.SECONDS);
 
@@ -259,20 +521,88 @@ public class AbstractNetwork implements Network {
             }
         }
 
-        private void loadData(StatusMessage msg) {
+        private synchronized void loadData(StatusMessage msg) {
+            boolean sameEpoch = msg.epoch == this.epoch;
+            if (sameEpoch && msg.version != 0 && msg.version <= this.version) {
+                // arrived out of order, a newer message has already been applied
+                return;
+            }
+
             checkTimeSync(msg.time);
 
             this.lastPing = msg.time;
-            this.groups = ImmutableSet.copyOf(msg.groups);
-
-            ImmutableMap.Builder<UUID, Profile> players = ImmutableMap.builder();
-            for (Map.Entry<UUID, String> p : msg.players.entrySet()) {
-                players.put(p.getKey(), Profile.create(p.getKey(), p.getValue()));
+            this.disconnected = false;
+            if (!this.groups.containsAll(msg.groups) || this.groups.size() != msg.groups.size()) {
+                this.groups = ImmutableSet.copyOf(msg.groups);
             }
-            this.players = players.build();
             this.maxPlayers = msg.maxPlayers;
             this.whitelisted = msg.whitelisted;
-            this.metadata = ImmutableMap.copyOf(msg.metadata);
+
+            if (!msg.delta) {
+                loadPlayers(msg.players);
+                this.metadata = ImmutableMap.copyOf(msg.metadata);
+            } else if (sameEpoch && msg.version == this.version + 1) {
+                applyPlayerChanges(msg.players, msg.leftPlayers);
+                applyMetadataChanges(msg.metadata, msg.removedMetadata);
+            } else {
+                // missed a message, so the changes can't be applied
+                this.needsResync = true;
+                return;
+            }
+
+            this.epoch = msg.epoch;
+            this.version = msg.version;
+            this.needsResync = false;
+        }
+
+        private void loadPlayers(Map<UUID, String> players) {
+            ImmutableMap.Builder<UUID, Profile> builder = ImmutableMap.builder();
+            for (Map.Entry<UUID, String> p : players.entrySet()) {
+                // reuse existing profiles where possible
+                Profile existing = this.players.get(p.getKey());
+                if (existing != null && existing.getName().equals(Optional.ofNullable(p.getValue()))) {
+                    builder.put(p.getKey(), existing);
+                } else {
+                    builder.put(p.getKey(), Profile.create(p.getKey(), p.getValue()));
+                }
+            }
+            this.players = builder.build();
+        }
+
+        private void applyPlayerChanges(Map<UUID, String> joined, List<UUID> left) {
+            if (joined.isEmpty() && left.isEmpty()) {
+                return;
+            }
+
+            Map<UUID, Profile> players = new HashMap<>(this.players);
+            for (UUID uuid : left) {
+                players.remove(uuid);
+            }
+            for (Map.Entry<UUID, String> p : joined.entrySet()) {
+                players.put(p.getKey(), Profile.create(p.getKey(), p.getValue()));
+            }
+            this.players = ImmutableMap.copyOf(players);
+        }
+
+        private void applyMetadataChanges(Map<String, JsonElement> changed, List<String> removed) {
+            if (changed.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+
+            Map<String, JsonElement> metadata = new HashMap<>(this.metadata);
+            for (String key : removed) {
+                metadata.remove(key);
+            }
+            metadata.putAll(changed);
+            this.metadata = ImmutableMap.copyOf(metadata);
+        }
+
+        private synchronized boolean needsResync() {
+            return this.needsResync;
+        }
+
+        private synchronized void markDisconnected() {
+            this.disconnected = true;
         }
 
         @Nonnull
@@ -335,12 +665,141 @@ public class AbstractNetwork implements Network {
 
     private static final class StatusMessage {
         private String id;
+        private long epoch;
+        private long version;
+        private boolean delta; // if players & metadata only contain changes
         private List<String> groups;
         private long time;
         private Map<UUID, String> players;
+        private List<UUID> leftPlayers = Collections.emptyList(); // only used by deltas
         private int maxPlayers;
         private boolean whitelisted;
         private Map<String, JsonElement> metadata;
+        private List<String> removedMetadata = Collections.emptyList(); // only used by deltas
+    }
+
+    /**
+     * Samples a {@link ServerMetadataProvider} on its own thread and interval, and
+     * caches the result.
+     */
+    private static final class MetadataSampler implements ServerMetadataProviderMetrics {
+        private final ServerMetadataProvider provider;
+
+        // the most recent metadata, only replaced when the values change
+        private volatile Map<String, JsonElement> values = ImmutableMap.of();
+
+        private final AtomicBoolean sampling = new AtomicBoolean(false);
+        private volatile long lastAttemptTime = 0;
+        private volatile long lastSampleTime = 0;
+
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong(0);
+        private volatile long lastNanos = 0;
+
+        MetadataSampler(ServerMetadataProvider provider) {
+            this.provider = provider;
+        }
+
+        void sampleIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - this.lastAttemptTime < this.provider.getRefreshInterval().toMillis()) {
+                return;
+            }
+
+            // skip if the previous sample hasn't finished yet
+            if (!this.sampling.compareAndSet(false, true)) {
+                return;
+            }
+
+            this.lastAttemptTime = now;
+            try {
+                Schedulers.get(this.provider.getThreadContext()).run(this::sample);
+            } catch (Exception e) {
+                this.sampling.set(false);
+                throw e;
+            }
+        }
+
+        private void sample() {
+            long start = System.nanoTime();
+            try {
+                Map<String, JsonElement> values = new HashMap<>();
+                for (ServerMetadata metadata : this.provider.provide()) {
+                    values.put(metadata.key(), metadata.data());
+                }
+                if (!values.equals(this.values)) {
+                    this.values = ImmutableMap.copyOf(values);
+                }
+                this.lastSampleTime = System.currentTimeMillis();
+            } catch (Exception e) {
+                this.failures.increment();
+                new RuntimeException("Exception calling ServerMetadataProvider " + this.provider, e).printStackTrace();
+            } finally {
+                long duration = System.nanoTime() - start;
+                this.samples.increment();
+                this.totalNanos.add(duration);
+                this.maxNanos.accumulateAndGet(duration, Math::max);
+                this.lastNanos = duration;
+                this.sampling.set(false);
+            }
+        }
+
+        @Override
+        public ServerMetadataProvider getProvider() {
+            return this.provider;
+        }
+
+        @Override
+        public long getSampleCount() {
+            return this.samples.sum();
+        }
+
+        @Override
+        public long getFailureCount() {
+            return this.failures.sum();
+        }
+
+        @Override
+        public long getLastSampleTime() {
+            return this.lastSampleTime;
+        }
+
+        @Override
+        public boolean isSampling() {
+            return this.sampling.get();
+        }
+
+        @Override
+        public Duration getLastSampleDuration() {
+            return Duration.ofNanos(this.lastNanos);
+        }
+
+        @Override
+        public Duration getMaxSampleDuration() {
+            return Duration.ofNanos(this.maxNanos.get());
+        }
+
+        @Override
+        public Duration getAverageSampleDuration() {
+            long samples = this.samples.sum();
+            return samples == 0 ? Duration.ZERO : Duration.ofNanos(this.totalNanos.sum() / samples);
+        }
+    }
+
+    private static final class IndexedPlayer {
+        private final Profile profile;
+        private final ServerImpl server;
+
+        private IndexedPlayer(Profile profile, ServerImpl server) {
+            this.profile = profile;
+            this.server = server;
+        }
+    }
+
+    private static final class ResyncMessage {
+        private String target;
     }
 
     private static final class EventMessage {
@@ -30,12 +30,15 @@ import me.lucko.helper.messaging.InstanceData;
 import me.lucko.helper.messaging.Messenger;
 import me.lucko.helper.network.event.NetworkEvent;
 import me.lucko.helper.network.metadata.ServerMetadataProvider;
+import me.lucko.helper.network.metadata.ServerMetadataProviderMetrics;
 import me.lucko.helper.profiles.Profile;
 import me.lucko.helper.terminable.Terminable;
 
 import net.kyori.event.EventBus;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Supplier;
 
@@ -81,10 +84,37 @@ public interface Network extends Terminable {
     /**
      * Gets the players known to be online in the network.
      *
+     * <p>The returned map is an unmodifiable view, which is updated as status messages
+     * are received.</p>
+     *
      * @return the known online players
      */
     Map<UUID, Profile> getOnlinePlayers();
 
+    /**
+     * Gets the server a player is connected to.
+     *
+     * @param uniqueId the unique id of the player
+     * @return the server, if the player is online
+     */
+    Optional<Server> getPlayerServer(UUID uniqueId);
+
+    /**
+     * Gets a player who is online in the network by name.
+     *
+     * @param name the name of the player, case insensitive
+     * @return the player, if they are online
+     */
+    Optional<Profile> getPlayer(String name);
+
+    /**
+     * Gets the number of players connected to servers in the given group.
+     *
+     * @param group the group
+     * @return the player count
+     */
+    int getGroupPlayerCount(String group);
+
     /**
      * Gets the overall player count
      *
@@ -99,6 +129,13 @@ public interface Network extends Terminable {
      */
     void registerMetadataProvider(ServerMetadataProvider metadataProvider);
 
+    /**
+     * Gets timing information for the metadata providers registered with the network.
+     *
+     * @return the metadata provider metrics
+     */
+    Collection<ServerMetadataProviderMetrics> getMetadataProviderMetrics();
+
     /**
      * Gets the network event bus.
      *
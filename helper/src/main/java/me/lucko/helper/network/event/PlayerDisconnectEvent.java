@@ -0,0 +1,80 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.network.event;
+
+import me.lucko.helper.network.Server;
+import me.lucko.helper.profiles.Profile;
+
+import java.util.Objects;
+
+/**
+ * Called when a player leaves a server on the network, or the server goes offline.
+ */
+public class PlayerDisconnectEvent implements NetworkEvent {
+    private final Profile profile;
+    private final Server server;
+
+    public PlayerDisconnectEvent(Profile profile, Server server) {
+        this.profile = Objects.requireNonNull(profile, "profile");
+        this.server = Objects.requireNonNull(server, "server");
+    }
+
+    /**
+     * Gets the player.
+     *
+     * @return the player
+     */
+    public Profile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Gets the server.
+     *
+     * @return the server
+     */
+    public Server getServer() {
+        return this.server;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PlayerDisconnectEvent that = (PlayerDisconnectEvent) o;
+        return this.profile.equals(that.profile) && this.server.equals(that.server);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.profile, this.server);
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerDisconnectEvent{profile=" + this.profile + ", server=" + this.server + '}';
+    }
+}
@@ -25,9 +25,17 @@
 
 package me.lucko.helper.network.metadata;
 
+import me.lucko.helper.promise.ThreadContext;
+
+import java.time.Duration;
+
 /**
  * Provides metadata about the current server instance to be broadcasted to the
  * network.
+ *
+ * <p>Providers are sampled separately from the status broadcast, and the most recent
+ * result is included in each status message. A provider which is slow to respond only
+ * delays its own metadata.</p>
  */
 @FunctionalInterface
 public interface ServerMetadataProvider {
@@ -39,4 +47,26 @@ public interface ServerMetadataProvider {
      */
     Iterable<ServerMetadata> provide();
 
+    /**
+     * Gets the minimum time between calls to {@link #provide()}.
+     *
+     * <p>By default, the provider is sampled before each status broadcast.</p>
+     *
+     * @return the refresh interval
+     */
+    default Duration getRefreshInterval() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * Gets the thread {@link #provide()} should be called on.
+     *
+     * <p>By default, providers are called asynchronously.</p>
+     *
+     * @return the thread context
+     */
+    default ThreadContext getThreadContext() {
+        return ThreadContext.ASYNC;
+    }
+
 }
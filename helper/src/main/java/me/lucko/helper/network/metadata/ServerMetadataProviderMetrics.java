@@ -0,0 +1,91 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.network.metadata;
+
+import java.time.Duration;
+
+/**
+ * Exposes timing information about a registered {@link ServerMetadataProvider}.
+ */
+public interface ServerMetadataProviderMetrics {
+
+    /**
+     * Gets the provider.
+     *
+     * @return the provider
+     */
+    ServerMetadataProvider getProvider();
+
+    /**
+     * Gets the number of times the provider has been sampled.
+     *
+     * @return the sample count
+     */
+    long getSampleCount();
+
+    /**
+     * Gets the number of times the provider has thrown an exception.
+     *
+     * @return the failure count
+     */
+    long getFailureCount();
+
+    /**
+     * Gets the time the provider was last sampled successfully.
+     *
+     * @return the time, as a unix timestamp in milliseconds, or 0 if never
+     */
+    long getLastSampleTime();
+
+    /**
+     * Gets if the provider is currently being sampled.
+     *
+     * @return true if a sample is in progress
+     */
+    boolean isSampling();
+
+    /**
+     * Gets how long the most recent sample took.
+     *
+     * @return the duration of the last sample
+     */
+    Duration getLastSampleDuration();
+
+    /**
+     * Gets the longest time a sample has taken.
+     *
+     * @return the maximum sample duration
+     */
+    Duration getMaxSampleDuration();
+
+    /**
+     * Gets the average time taken by each sample.
+     *
+     * @return the average sample duration
+     */
+    Duration getAverageSampleDuration();
+
+}
@@ -27,11 +27,15 @@ package me.lucko.helper.network.metadata;
 
 import me.lucko.helper.utils.Tps;
 
+import java.time.Duration;
 import java.util.Collections;
 
 public final class TpsMetadataProvider implements ServerMetadataProvider {
     public static final ServerMetadataProvider INSTANCE = new TpsMetadataProvider();
 
+    // the tps averages change slowly, so don't need to be read for every broadcast
+    private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(10);
+
     private TpsMetadataProvider() {
 
     }
@@ -45,4 +49,9 @@ public final class TpsMetadataProvider implements ServerMetadataProvider {
         Tps tps = Tps.read();
         return Collections.singleton(ServerMetadata.of("tps", tps, Tps.class));
     }
+
+    @Override
+    public Duration getRefreshInterval() {
+        return REFRESH_INTERVAL;
+    }
 }
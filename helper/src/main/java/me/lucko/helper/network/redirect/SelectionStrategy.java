@@ -0,0 +1,220 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.network.redirect;
+
+import com.google.common.hash.Hashing;
+
+import me.lucko.helper.network.Server;
+import me.lucko.helper.utils.Tps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A strategy for choosing a server from a group, used by {@link ServerSelector}.
+ */
+@FunctionalInterface
+public interface SelectionStrategy {
+
+    /**
+     * Selects a server from the given candidates.
+     *
+     * @param candidates the candidates, never empty
+     * @return the selected server, or null if none are suitable
+     */
+    @Nullable
+    Candidate select(@Nonnull List<Candidate> candidates);
+
+    /**
+     * Selects the server with the fewest players.
+     *
+     * @return the strategy
+     */
+    static SelectionStrategy leastPlayers() {
+        return candidates -> candidates.stream().min(Comparator.comparingInt(Candidate::getPlayerCount)).orElse(null);
+    }
+
+    /**
+     * Selects the server with the lowest proportion of its slots filled, so larger
+     * servers receive more players.
+     *
+     * @return the strategy
+     */
+    static SelectionStrategy weighted() {
+        return candidates -> candidates.stream().min(Comparator.comparingDouble(Candidate::getLoad)).orElse(null);
+    }
+
+    /**
+     * Selects the server with the highest TPS, as reported by the
+     * {@link me.lucko.helper.network.metadata.TpsMetadataProvider}. Ties are broken by
+     * {@link #weighted() load}.
+     *
+     * @return the strategy
+     */
+    static SelectionStrategy highestTps() {
+        return candidates -> candidates.stream()
+                .min(Comparator.comparingDouble((Candidate c) -> -c.getTps()).thenComparingDouble(Candidate::getLoad))
+                .orElse(null);
+    }
+
+    /**
+     * Picks two servers at random, and selects the one with the lowest
+     * {@link #weighted() load}.
+     *
+     * <p>This spreads players almost as evenly as always picking the least loaded
+     * server, but avoids every selector choosing the same server when their view of
+     * the network is out of date.</p>
+     *
+     * @return the strategy
+     */
+    static SelectionStrategy powerOfTwoChoices() {
+        return candidates -> {
+            int size = candidates.size();
+            if (size == 1) {
+                return candidates.get(0);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+
+            Candidate a = candidates.get(first);
+            Candidate b = candidates.get(second);
+            return a.getLoad() <= b.getLoad() ? a : b;
+        };
+    }
+
+    /**
+     * Selects a server by hashing the given key, so the same key is consistently
+     * mapped to the same server while it is available. Used to keep the members of a
+     * party together, for example.
+     *
+     * <p>Uses rendezvous hashing, so when a server is added or removed, only the keys
+     * mapped to that server move.</p>
+     *
+     * @param key the key
+     * @return the strategy
+     */
+    static SelectionStrategy consistentHash(@Nonnull String key) {
+        Objects.requireNonNull(key, "key");
+        return candidates -> {
+            Candidate selected = null;
+            long selectedWeight = Long.MIN_VALUE;
+            for (Candidate candidate : candidates) {
+                long weight = Hashing.murmur3_128().newHasher()
+                        .putString(key, StandardCharsets.UTF_8)
+                        .putByte((byte) 0)
+                        .putString(candidate.getServer().getId(), StandardCharsets.UTF_8)
+                        .hash().asLong();
+                if (selected == null || weight > selectedWeight) {
+                    selected = candidate;
+                    selectedWeight = weight;
+                }
+            }
+            return selected;
+        };
+    }
+
+    /**
+     * A server which could be selected.
+     */
+    final class Candidate {
+        private final Server server;
+        private final int playerCount;
+        private final int maxPlayers;
+        private double tps = Double.NaN;
+
+        Candidate(Server server, int reserved) {
+            this.server = server;
+            this.playerCount = server.getOnlinePlayers().size() + reserved;
+            this.maxPlayers = server.getMaxPlayers();
+        }
+
+        /**
+         * Gets the server.
+         *
+         * @return the server
+         */
+        public Server getServer() {
+            return this.server;
+        }
+
+        /**
+         * Gets the number of players on the server, including redirects which are
+         * still in progress.
+         *
+         * @return the player count
+         */
+        public int getPlayerCount() {
+            return this.playerCount;
+        }
+
+        /**
+         * Gets the maximum number of players the server allows.
+         *
+         * @return the max players
+         */
+        public int getMaxPlayers() {
+            return this.maxPlayers;
+        }
+
+        /**
+         * Gets the proportion of the server's slots which are filled.
+         *
+         * @return the load, between 0 and 1
+         */
+        public double getLoad() {
+            return this.maxPlayers <= 0 ? 1 : (double) this.playerCount / this.maxPlayers;
+        }
+
+        /**
+         * Gets the server's 1 minute average TPS, or 0 if it is unknown.
+         *
+         * @return the tps
+         */
+        public double getTps() {
+            if (Double.isNaN(this.tps)) {
+                Tps tps = null;
+                try {
+                    tps = this.server.getMetadata("tps", Tps.class);
+                } catch (Exception e) {
+                    // ignore
+                }
+                this.tps = tps == null ? 0 : tps.avg1();
+            }
+            return this.tps;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.network.redirect;
+
+import com.google.common.collect.ImmutableMap;
+
+import me.lucko.helper.network.Network;
+import me.lucko.helper.network.Server;
+import me.lucko.helper.network.event.PlayerConnectEvent;
+import me.lucko.helper.profiles.Profile;
+import me.lucko.helper.promise.Promise;
+import me.lucko.helper.terminable.Terminable;
+
+import net.kyori.event.EventSubscriber;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Selects servers from a group of the {@link Network} using a {@link SelectionStrategy},
+ * and redirects players to them using a {@link RedirectSystem}.
+ *
+ * <p>Servers only report their player count every few seconds, so each redirect started by
+ * this selector reserves a slot on the target server. The slot is released when the player
+ * is seen on the server, when the redirect is denied, or after a timeout. This stops a
+ * burst of redirects from all being sent to the same server. Selecting a server and reserving
+ * the slot happen together, so concurrent redirects see each other's reservations.</p>
+ *
+ * <p>Servers which are offline, whitelisted or full are never selected.</p>
+ */
+public class ServerSelector implements Terminable {
+    private static final long DEFAULT_RESERVATION_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Network network;
+    private final RedirectSystem redirectSystem;
+    private final long reservationMillis;
+
+    private final Map<UUID, Reservation> reservations = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> reservedCounts = new ConcurrentHashMap<>();
+    // held while selecting a server and reserving a slot on it. servers can be in more than
+    // one group, so this is shared rather than per group
+    private final Object selectionLock = new Object();
+
+    private final EventSubscriber<PlayerConnectEvent> connectListener = new EventSubscriber<PlayerConnectEvent>() {
+        @Override
+        public void invoke(@NonNull PlayerConnectEvent event) {
+            Reservation reservation = ServerSelector.this.reservations.get(event.getProfile().getUniqueId());
+            if (reservation != null && reservation.serverId.equals(event.getServer().getId())) {
+                release(event.getProfile().getUniqueId(), reservation);
+            }
+        }
+    };
+
+    public ServerSelector(Network network, RedirectSystem redirectSystem) {
+        this(network, redirectSystem, DEFAULT_RESERVATION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public ServerSelector(Network network, RedirectSystem redirectSystem, long reservationTimeout, TimeUnit unit) {
+        this.network = Objects.requireNonNull(network, "network");
+        this.redirectSystem = Objects.requireNonNull(redirectSystem, "redirectSystem");
+        this.reservationMillis = unit.toMillis(reservationTimeout);
+        this.network.getEventBus().register(PlayerConnectEvent.class, this.connectListener);
+    }
+
+    /**
+     * Selects a server from the given group.
+     *
+     * @param group the group
+     * @param strategy the selection strategy
+     * @return the selected server, if any are available
+     */
+    public Optional<Server> select(@Nonnull String group, @Nonnull SelectionStrategy strategy) {
+        Objects.requireNonNull(group, "group");
+        Objects.requireNonNull(strategy, "strategy");
+        expireReservations();
+
+        List<SelectionStrategy.Candidate> candidates = new ArrayList<>();
+        for (Server server : this.network.getServers().values()) {
+            if (!server.isOnline() || server.isWhitelisted() || !server.getGroups().contains(group)) {
+                continue;
+            }
+
+            SelectionStrategy.Candidate candidate = new SelectionStrategy.Candidate(server, getReservedSlots(server.getId()));
+            if (candidate.getPlayerCount() >= candidate.getMaxPlayers()) {
+                continue;
+            }
+            candidates.add(candidate);
+        }
+
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        SelectionStrategy.Candidate selected = strategy.select(candidates);
+        return selected == null ? Optional.empty() : Optional.of(selected.getServer());
+    }
+
+    /**
+     * Selects a server from the given group, and redirects the player to it.
+     *
+     * <p>If no server is available, the returned promise is completed with a
+     * {@link RedirectSystem.ReceivedResponse.Status#DENIED denied} response.</p>
+     *
+     * @param group the group
+     * @param profile the player
+     * @param params the redirect parameters
+     * @param strategy the selection strategy
+     * @return a promise encapsulating the response from the selected server
+     */
+    public Promise<RedirectSystem.ReceivedResponse> redirectPlayer(@Nonnull String group, @Nonnull Profile profile, @Nonnull Map<String, String> params, @Nonnull SelectionStrategy strategy) {
+        Objects.requireNonNull(profile, "profile");
+        Objects.requireNonNull(params, "params");
+
+        UUID uniqueId = profile.getUniqueId();
+        Server server;
+        Reservation reservation;
+        synchronized (this.selectionLock) {
+            server = select(group, strategy).orElse(null);
+            if (server == null) {
+                return Promise.completed(new NoServerResponse(group));
+            }
+            reservation = reserve(uniqueId, server.getId());
+        }
+
+        Promise<RedirectSystem.ReceivedResponse> response = this.redirectSystem.redirectPlayer(server.getId(), profile, params);
+        response.thenAcceptAsync(r -> {
+            if (r.getStatus() != RedirectSystem.ReceivedResponse.Status.ALLOWED) {
+                release(uniqueId, reservation);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Gets the number of redirects to the given server which are still in progress.
+     *
+     * @param serverId the server id
+     * @return the number of reserved slots
+     */
+    public int getReservedSlots(@Nonnull String serverId) {
+        AtomicInteger count = this.reservedCounts.get(serverId);
+        return count == null ? 0 : Math.max(0, count.get());
+    }
+
+    private Reservation reserve(UUID uniqueId, String serverId) {
+        Reservation reservation = new Reservation(serverId, System.currentTimeMillis() + this.reservationMillis);
+        this.reservedCounts.computeIfAbsent(serverId, id -> new AtomicInteger()).incrementAndGet();
+
+        // a player can only be redirected to one server at a time
+        Reservation previous = this.reservations.put(uniqueId, reservation);
+        if (previous != null) {
+            decrement(previous.serverId);
+        }
+        return reservation;
+    }
+
+    private void release(UUID uniqueId, Reservation reservation) {
+        if (this.reservations.remove(uniqueId, reservation)) {
+            decrement(reservation.serverId);
+        }
+    }
+
+    private void expireReservations() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<UUID, Reservation>> it = this.reservations.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Reservation> entry = it.next();
+            if (entry.getValue().expiry <= now) {
+                release(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void decrement(String serverId) {
+        AtomicInteger count = this.reservedCounts.get(serverId);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.network.getEventBus().unregister(this.connectListener);
+        this.reservations.clear();
+        this.reservedCounts.clear();
+    }
+
+    private static final class Reservation {
+        private final String serverId;
+        private final long expiry;
+
+        private Reservation(String serverId, long expiry) {
+            this.serverId = serverId;
+            this.expiry = expiry;
+        }
+    }
+
+    private static final class NoServerResponse implements RedirectSystem.ReceivedResponse {
+        private final String group;
+
+        private NoServerResponse(String group) {
+            this.group = group;
+        }
+
+        @Nonnull
+        @Override
+        public Status getStatus() {
+            return Status.DENIED;
+        }
+
+        @Nonnull
+        @Override
+        public Optional<String> getReason() {
+            return Optional.of("No server available in group " + this.group);
+        }
+
+        @Nonnull
+        @Override
+        public Map<String, String> getParams() {
+            return ImmutableMap.of();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.scheduler;
+
+/**
+ * Exposes runtime statistics about an executor.
+ */
+public interface ExecutorMetrics {
+
+    /**
+     * Gets the number of worker threads currently started by the executor.
+     *
+     * @return the pool size
+     */
+    int getPoolSize();
+
+    /**
+     * Gets the number of threads currently executing tasks.
+     *
+     * @return the active thread count
+     */
+    int getActiveThreadCount();
+
+    /**
+     * Gets the number of tasks which have been submitted, but are yet to start executing.
+     *
+     * @return the queued task count
+     */
+    int getQueuedTaskCount();
+
+    /**
+     * Gets the total number of tasks which have finished executing.
+     *
+     * @return the completed task count
+     */
+    long getCompletedTaskCount();
+
+    /**
+     * Gets the total number of tasks which were rejected because the queue was full.
+     *
+     * @return the rejected task count
+     */
+    long getRejectedTaskCount();
+
+}
@@ -0,0 +1,395 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A timer optimised for scheduling large numbers of short timeouts, most of which are
+ * cancelled before they expire.
+ *
+ * <p>Timeouts are placed into a fixed size wheel of buckets, which a single worker thread
+ * advances every tick. Scheduling and cancelling a timeout are O(1), and the timer uses one
+ * thread regardless of how many timeouts are pending. Timeouts expire at most one tick
+ * late.</p>
+ *
+ * <p>Expired tasks are executed using the executor passed to the timer, so they do not
+ * hold up the worker thread.</p>
+ */
+public final class HashedWheelTimer implements TimerMetrics {
+    private static final int STATE_INIT = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_STOPPED = 2;
+
+    // the maximum number of new timeouts added to the wheel each tick
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+    private final CountDownLatch startLatch = new CountDownLatch(1);
+    private volatile long startTime = 0;
+    private Thread worker = null;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    /**
+     * Creates a new timer.
+     *
+     * @param tickDuration the duration of each tick
+     * @param unit the unit of the tick duration
+     * @param wheelSize the number of buckets in the wheel, rounded up to a power of two
+     * @param executor the executor to run expired tasks with
+     */
+    public HashedWheelTimer(long tickDuration, @Nonnull TimeUnit unit, int wheelSize, @Nonnull Executor executor) {
+        Objects.requireNonNull(unit, "unit");
+        Objects.requireNonNull(executor, "executor");
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize out of range: " + wheelSize);
+        }
+
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        if (size == 0) {
+            size = 1;
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.executor = executor;
+        this.threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("helper-wheel-timer-%d")
+                .build();
+    }
+
+    /**
+     * Schedules a task to be executed after the given delay.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return a timeout which can be used to cancel the task
+     * @throws IllegalStateException if the timer has been stopped
+     */
+    @Nonnull
+    public Timeout newTimeout(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(task, "task");
+        Objects.requireNonNull(unit, "unit");
+        start();
+
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - this.startTime;
+        Timeout timeout = new Timeout(task, deadline);
+        this.pending.increment();
+        this.newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer. Pending timeouts will not be executed.
+     */
+    public void stop() {
+        if (this.state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+            this.worker.interrupt();
+        }
+    }
+
+    @Override
+    public long getPendingTimeouts() {
+        return this.pending.sum();
+    }
+
+    @Override
+    public long getExpiredTimeouts() {
+        return this.expired.sum();
+    }
+
+    @Override
+    public long getCancelledTimeouts() {
+        return this.cancelled.sum();
+    }
+
+    private void start() {
+        switch (this.state.get()) {
+            case STATE_INIT:
+                if (this.state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+                    this.startTime = System.nanoTime();
+                    this.worker = this.threadFactory.newThread(this::run);
+                    this.worker.start();
+                    this.startLatch.countDown();
+                }
+                break;
+            case STATE_STARTED:
+                break;
+            default:
+                throw new IllegalStateException("Timer has been stopped");
+        }
+
+        // wait for the thread which won the race to set the start time
+        boolean interrupted = false;
+        while (this.startLatch.getCount() != 0) {
+            try {
+                this.startLatch.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        while (this.state.get() == STATE_STARTED) {
+            long deadline = waitForNextTick(tick);
+            if (deadline < 0) {
+                break;
+            }
+
+            processCancelled();
+            transferTimeouts(tick);
+            this.wheel[(int) (tick & this.mask)].expire(deadline);
+            tick++;
+        }
+
+        // discard anything left over
+        for (Bucket bucket : this.wheel) {
+            bucket.clear();
+        }
+        this.newTimeouts.clear();
+        this.cancelledTimeouts.clear();
+    }
+
+    private long waitForNextTick(long tick) {
+        long deadline = this.tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - this.startTime;
+            long sleepMillis = (deadline - current + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return current;
+            }
+
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (this.state.get() == STATE_STOPPED) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void processCancelled() {
+        Timeout timeout;
+        while ((timeout = this.cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferTimeouts(long tick) {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = this.newTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state.get() != Timeout.STATE_PENDING) {
+                continue;
+            }
+
+            long expiryTick = timeout.deadline / this.tickNanos;
+            timeout.remainingRounds = (expiryTick - tick) / this.wheel.length;
+
+            // timeouts which should already have expired are placed in the current bucket
+            long targetTick = Math.max(expiryTick, tick);
+            this.wheel[(int) (targetTick & this.mask)].add(timeout);
+        }
+    }
+
+    /**
+     * A handle to a task scheduled by a {@link HashedWheelTimer}.
+     */
+    public final class Timeout {
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        // only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, if it has not already expired.
+         *
+         * @return true if the task was cancelled by this call
+         */
+        public boolean cancel() {
+            if (!this.state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+
+            HashedWheelTimer.this.pending.decrement();
+            HashedWheelTimer.this.cancelled.increment();
+            HashedWheelTimer.this.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return this.state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return this.state.get() == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (!this.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                return;
+            }
+
+            HashedWheelTimer.this.pending.decrement();
+            HashedWheelTimer.this.expired.increment();
+            try {
+                HashedWheelTimer.this.executor.execute(this::runTask);
+            } catch (Throwable e) {
+                new RuntimeException("Unable to execute timeout task", e).printStackTrace();
+            }
+        }
+
+        private void runTask() {
+            try {
+                this.task.run();
+            } catch (Throwable e) {
+                new RuntimeException("Exception thrown by timeout task", e).printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    }
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == this.head) {
+                this.head = timeout.next;
+            }
+            if (timeout == this.tail) {
+                this.tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void clear() {
+            this.head = null;
+            this.tail = null;
+        }
+    }
+}
@@ -28,33 +28,107 @@ package me.lucko.helper.scheduler;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import me.lucko.helper.internal.exception.HelperExceptions;
+import me.lucko.helper.utils.Log;
+
+import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * The executor backing {@link HelperExecutors#asyncHelper()}.
+ *
+ * <p>Tasks are executed by a bounded work-stealing pool. The pool can be tuned
+ * using the following system properties:</p>
+ * <ul>
+ *     <li><b>helper.scheduler.threads</b> - the number of worker threads. Defaults to the
+ *     number of available processors, with a minimum of 4, as many tasks block on I/O.</li>
+ *     <li><b>helper.scheduler.max-queued</b> - the maximum number of tasks waiting to be
+ *     executed before new tasks are rejected. Unbounded by default.</li>
+ *     <li><b>helper.scheduler.rejection-policy</b> - what to do with a rejected task, one of
+ *     {@code caller_runs} (the default), {@code abort} or {@code discard}.</li>
+ *     <li><b>helper.scheduler.plugin-quota</b> - the default maximum number of tasks each
+ *     plugin can have executing at once. Unlimited by default. Tasks are attributed to the
+ *     plugin which defined the task class. Tasks defined by helper itself (e.g. promise
+ *     stages) are not subject to a quota. Tasks submitted by a task which already holds one
+ *     of its plugin's slots run as part of that slot, so a task waiting on its own subtasks
+ *     can't exhaust the quota and deadlock.</li>
+ *     <li><b>helper.scheduler.virtual-threads</b> - if true, and the server is running on
+ *     Java 21 or newer, each task is executed on a new virtual thread instead of by the
+ *     pool. Suited to workloads dominated by blocking I/O. Disabled by default.</li>
+ * </ul>
+ *
+ * <p>Tasks which block the pool should do so via {@link ForkJoinPool#managedBlock}, so the
+ * pool can compensate with an additional worker while they wait. Waiting on a
+ * {@link me.lucko.helper.promise.Promise} already does this.</p>
+ */
+final class HelperAsyncExecutor extends AbstractExecutorService implements ScheduledExecutorService, ExecutorMetrics {
+    private static final int THREADS = Integer.getInteger("helper.scheduler.threads", Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_QUEUED = Integer.getInteger("helper.scheduler.max-queued", Integer.MAX_VALUE);
+    private static final RejectionPolicy REJECTION_POLICY = RejectionPolicy.parse(System.getProperty("helper.scheduler.rejection-policy"));
+    private static final int DEFAULT_PLUGIN_QUOTA = Integer.getInteger("helper.scheduler.plugin-quota", 0);
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("helper.scheduler.virtual-threads");
+
+    // the plugin which defined each task class, resolved once per class
+    private static final ClassValue<Optional<String>> PROVIDING_PLUGIN = new ClassValue<Optional<String>>() {
+        @Override
+        protected Optional<String> computeValue(Class<?> type) {
+            // helper's own classes (e.g. promise stages) don't identify the plugin using them.
+            // when helper is shaded, this includes the shading plugin's classes, but that
+            // copy of the executor is only used by the one plugin anyway
+            if (type.getClassLoader() == HelperAsyncExecutor.class.getClassLoader()) {
+                return Optional.empty();
+            }
+
+            try {
+                return Optional.of(JavaPlugin.getProvidingPlugin(type).getName());
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return Optional.empty();
+            }
+        }
+    };
+
+    // the quota whose slot the task being executed by the current thread runs in, if any
+    private static final ThreadLocal<PluginQuota> CURRENT_QUOTA = new ThreadLocal<>();
 
-final class HelperAsyncExecutor extends AbstractExecutorService implements ScheduledExecutorService {
     private final ExecutorService taskService;
     private final ScheduledExecutorService timerExecutionService;
 
     private final Set<ScheduledFuture<?>> tasks = Collections.newSetFromMap(new WeakHashMap<>());
 
+    // plugin name --> quota
+    private final Map<String, PluginQuota> quotas = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
     HelperAsyncExecutor() {
-        this.taskService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-                .setDaemon(true)
-                .setNameFormat("helper-scheduler-%d")
-                .build()
-        );
+        this.taskService = createTaskService();
         this.timerExecutionService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat("helper-scheduler-timer")
@@ -62,6 +136,40 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
         );
     }
 
+    private static ExecutorService createTaskService() {
+        if (VIRTUAL_THREADS) {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return new ForkJoinPool(THREADS, WorkerThread::new, null, true);
+    }
+
+    // helper is compiled against Java 8, so the virtual thread API has to be accessed reflectively
+    @Nullable
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "helper-scheduler-virtual-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            // not supported by this JVM, fallback to the pool
+            return null;
+        }
+    }
+
+    /**
+     * Gets if tasks are being executed on virtual threads.
+     *
+     * @return true if virtual threads are in use
+     */
+    boolean isVirtualThreads() {
+        return !(this.taskService instanceof ForkJoinPool);
+    }
+
     private ScheduledFuture<?> consumeTask(ScheduledFuture<?> future) {
         synchronized (this.tasks) {
             this.tasks.add(future);
@@ -77,15 +185,85 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
         }
     }
 
+    /**
+     * Sets the maximum number of tasks the given plugin can have executing at once.
+     *
+     * @param plugin the plugin name
+     * @param quota the quota, or 0 for no limit
+     */
+    void setPluginQuota(String plugin, int quota) {
+        this.quotas.computeIfAbsent(plugin, p -> new PluginQuota()).limit = quota;
+    }
+
     @Override
     public void execute(Runnable runnable) {
-        this.taskService.execute(HelperExceptions.wrapSchedulerTask(runnable));
+        Runnable task = HelperExceptions.wrapSchedulerTask(runnable);
+
+        if (this.queued.incrementAndGet() > MAX_QUEUED) {
+            this.queued.decrementAndGet();
+            reject(task);
+            return;
+        }
+
+        PluginQuota current = CURRENT_QUOTA.get();
+        PluginQuota quota = getQuota(runnable);
+        if (quota != null && quota != current) {
+            quota.offer(task);
+        } else {
+            // subtasks run as part of the slot held by the submitting task (if any), rather
+            // than waiting for a slot of their own which the submitter may be blocking
+            this.taskService.execute(new Worker(task, current, false));
+        }
+    }
+
+    // tasks which have already been accepted by the timer are not subject to the queue limit
+    private void dispatch(Runnable task) {
+        this.queued.incrementAndGet();
+        this.taskService.execute(new Worker(task, null, false));
+    }
+
+    private void reject(Runnable task) {
+        this.rejected.increment();
+        switch (REJECTION_POLICY) {
+            case CALLER_RUNS:
+                task.run();
+                break;
+            case ABORT:
+                throw new RejectedExecutionException("helper async executor is saturated (" + MAX_QUEUED + " tasks queued)");
+            case DISCARD:
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Nullable
+    private PluginQuota getQuota(Runnable runnable) {
+        if (DEFAULT_PLUGIN_QUOTA <= 0 && this.quotas.isEmpty()) {
+            return null;
+        }
+
+        // attribute the task to the plugin which defined it
+        Optional<String> providingPlugin = PROVIDING_PLUGIN.get(runnable.getClass());
+        if (!providingPlugin.isPresent()) {
+            return null;
+        }
+        String plugin = providingPlugin.get();
+
+        if (DEFAULT_PLUGIN_QUOTA <= 0) {
+            return this.quotas.get(plugin);
+        }
+        return this.quotas.computeIfAbsent(plugin, p -> {
+            PluginQuota quota = new PluginQuota();
+            quota.limit = DEFAULT_PLUGIN_QUOTA;
+            return quota;
+        });
     }
 
     @Override
     public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
         Runnable delegate = HelperExceptions.wrapSchedulerTask(command);
-        return consumeTask(this.timerExecutionService.schedule(() -> this.taskService.execute(delegate), delay, unit));
+        return consumeTask(this.timerExecutionService.schedule(() -> dispatch(delegate), delay, unit));
     }
 
     @Override
@@ -129,39 +307,174 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
         throw new IllegalStateException("Not shutdown");
     }
 
-    private final class FixedRateWorker implements Runnable {
+    @Override
+    public int getPoolSize() {
+        if (this.taskService instanceof ForkJoinPool) {
+            return ((ForkJoinPool) this.taskService).getPoolSize();
+        }
+
+        // virtual threads only exist while executing a task
+        return this.active.get();
+    }
+
+    @Override
+    public int getActiveThreadCount() {
+        return this.active.get();
+    }
+
+    @Override
+    public int getQueuedTaskCount() {
+        return this.queued.get();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return this.completed.sum();
+    }
+
+    @Override
+    public long getRejectedTaskCount() {
+        return this.rejected.sum();
+    }
+
+    enum RejectionPolicy {
+        CALLER_RUNS, ABORT, DISCARD;
+
+        static RejectionPolicy parse(@Nullable String value) {
+            if (value == null) {
+                return CALLER_RUNS;
+            }
+
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                // don't fail the static initializer (and with it, every scheduler) over a typo
+                Log.warn("[helper] Unknown helper.scheduler.rejection-policy '" + value + "', using caller_runs");
+                return CALLER_RUNS;
+            }
+        }
+    }
+
+    private static final class WorkerThread extends ForkJoinWorkerThread {
+        private WorkerThread(ForkJoinPool pool) {
+            super(pool);
+            setName("helper-scheduler-" + getPoolIndex());
+            setDaemon(true);
+        }
+    }
+
+    private final class Worker implements Runnable {
         private final Runnable delegate;
-        private final ReentrantLock lock = new ReentrantLock();
+        @Nullable
+        private final PluginQuota quota;
+        // if the task acquired a slot of its own, which it must release
+        private final boolean acquired;
+
+        private Worker(Runnable delegate, @Nullable PluginQuota quota, boolean acquired) {
+            this.delegate = delegate;
+            this.quota = quota;
+            this.acquired = acquired;
+        }
+
+        @Override
+        public void run() {
+            HelperAsyncExecutor.this.queued.decrementAndGet();
+            HelperAsyncExecutor.this.active.incrementAndGet();
+            PluginQuota previous = CURRENT_QUOTA.get();
+            CURRENT_QUOTA.set(this.quota);
+            try {
+                this.delegate.run();
+            } finally {
+                if (previous == null) {
+                    CURRENT_QUOTA.remove();
+                } else {
+                    CURRENT_QUOTA.set(previous);
+                }
+                HelperAsyncExecutor.this.active.decrementAndGet();
+                HelperAsyncExecutor.this.completed.increment();
+                if (this.acquired) {
+                    this.quota.release();
+                }
+            }
+        }
+    }
+
+    private final class PluginQuota {
+        private volatile int limit = 0;
         private final AtomicInteger running = new AtomicInteger(0);
+        private final Queue<Runnable> backlog = new ConcurrentLinkedQueue<>();
+
+        void offer(Runnable task) {
+            this.backlog.add(task);
+            drain();
+        }
+
+        void release() {
+            this.running.decrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            while (!this.backlog.isEmpty()) {
+                int limit = this.limit <= 0 ? Integer.MAX_VALUE : this.limit;
+                int running = this.running.get();
+                if (running >= limit) {
+                    return;
+                }
+                if (!this.running.compareAndSet(running, running + 1)) {
+                    continue;
+                }
+
+                Runnable task = this.backlog.poll();
+                if (task == null) {
+                    this.running.decrementAndGet();
+                    continue;
+                }
+                HelperAsyncExecutor.this.taskService.execute(new Worker(task, this, true));
+            }
+        }
+    }
+
+    private final class FixedRateWorker implements Runnable {
+        private final Runnable delegate;
+        // the number of runs either executing or waiting for the previous run to finish
+        private final AtomicInteger pending = new AtomicInteger(0);
 
         private FixedRateWorker(Runnable delegate) {
             this.delegate = delegate;
         }
 
-        // the purpose of 'lock' and 'running' is to prevent concurrent
-        // execution on the underlying delegate runnable.
-        // only one instance of the worker will "wait" for the previous task to finish
+        // the purpose of 'pending' is to prevent concurrent execution of the
+        // underlying delegate runnable, without parking a pool thread to wait
+        // for the previous run to finish.
+        // at most one run is deferred until the previous run has finished
 
         @Override
         public void run() {
             // assuming a task that takes a really long time:
-            // first call: running=1 - we want to run
-            // second call: running=2 - we want to wait
-            // third call: running=3 - assuming second is still waiting, we want to cancel
-            if (this.running.incrementAndGet() > 2) {
-                this.running.decrementAndGet();
+            // first call: pending=1 - we want to run
+            // second call: pending=2 - we want to run once the first run finishes
+            // third call: pending=3 - assuming second is still deferred, we want to cancel
+            int pending = this.pending.incrementAndGet();
+            if (pending > 2) {
+                this.pending.decrementAndGet();
                 return;
             }
 
-            HelperAsyncExecutor.this.taskService.execute(() -> {
-                this.lock.lock();
-                try {
-                    this.delegate.run();
-                } finally {
-                    this.lock.unlock();
-                    this.running.decrementAndGet();
+            if (pending == 1) {
+                dispatch(this::execute);
+            }
+        }
+
+        private void execute() {
+            try {
+                this.delegate.run();
+            } finally {
+                // the deferred run is dispatched by the run which it was waiting for
+                if (this.pending.decrementAndGet() != 0) {
+                    dispatch(this::execute);
                 }
-            });
+            }
         }
     }
 }
@@ -29,19 +29,55 @@ import me.lucko.helper.internal.LoaderUtils;
 import me.lucko.helper.internal.exception.HelperExceptions;
 
 import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
 
+import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides common {@link Executor} instances.
  */
 public final class HelperExecutors {
+    private static final HelperSyncExecutor SYNC_HELPER = new HelperSyncExecutor();
+    private static final Executor SYNC = SYNC_HELPER.lane(SyncPriority.NORMAL);
     private static final Executor SYNC_BUKKIT = new BukkitSyncExecutor();
     private static final Executor ASYNC_BUKKIT = new BukkitAsyncExecutor();
     private static final HelperAsyncExecutor ASYNC_HELPER = new HelperAsyncExecutor();
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(20, TimeUnit.MILLISECONDS, 512, ASYNC_HELPER);
 
+    /**
+     * Gets an executor which runs tasks on the main server thread, at
+     * {@link SyncPriority#NORMAL normal} priority.
+     *
+     * <p>Tasks are queued and executed within a per-tick time budget, see
+     * {@link #setSyncTickBudget(long, TimeUnit)}.</p>
+     *
+     * @return the sync executor
+     */
     public static Executor sync() {
+        return SYNC;
+    }
+
+    /**
+     * Gets an executor which runs tasks on the main server thread, at the given priority.
+     *
+     * @param priority the priority
+     * @return the sync executor
+     */
+    public static Executor sync(SyncPriority priority) {
+        Objects.requireNonNull(priority, "priority");
+        return SYNC_HELPER.lane(priority);
+    }
+
+    /**
+     * Gets an executor which schedules a new Bukkit task for each runnable,
+     * bypassing the {@link #sync()} queue and its tick budget.
+     *
+     * @return the sync bukkit executor
+     */
+    public static Executor syncBukkit() {
         return SYNC_BUKKIT;
     }
 
@@ -53,8 +89,80 @@ public final class HelperExecutors {
         return ASYNC_BUKKIT;
     }
 
+    /**
+     * Gets a shared timer for scheduling short timeouts, which are usually cancelled
+     * before they expire.
+     *
+     * <p>The timer has a resolution of 20 milliseconds, and executes expired tasks
+     * using the {@link #asyncHelper()} executor.</p>
+     *
+     * @return the shared timer
+     */
+    public static HashedWheelTimer timer() {
+        return TIMER;
+    }
+
+    /**
+     * Gets if the {@link #asyncHelper()} executor is running tasks on virtual threads.
+     *
+     * <p>Virtual threads are used when the <b>helper.scheduler.virtual-threads</b> system
+     * property is set to true, and the JVM supports them (Java 21+).</p>
+     *
+     * @return true if virtual threads are in use
+     */
+    public static boolean isAsyncHelperVirtual() {
+        return ASYNC_HELPER.isVirtualThreads();
+    }
+
+    /**
+     * Gets metrics for the {@link #asyncHelper()} executor.
+     *
+     * @return the async executor metrics
+     */
+    public static ExecutorMetrics asyncHelperMetrics() {
+        return ASYNC_HELPER;
+    }
+
+    /**
+     * Gets metrics for the {@link #sync()} executor.
+     *
+     * @return the sync executor metrics
+     */
+    public static SyncExecutorMetrics syncMetrics() {
+        return SYNC_HELPER;
+    }
+
+    /**
+     * Sets the maximum amount of time the {@link #sync()} executor will spend executing
+     * tasks each tick. Tasks which don't fit are carried over to the next tick.
+     *
+     * @param budget the budget, or 0 for no limit
+     * @param unit the unit of the budget
+     */
+    public static void setSyncTickBudget(long budget, TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        SYNC_HELPER.setTickBudget(budget, unit);
+    }
+
+    /**
+     * Limits the number of tasks the given plugin can have executing at once on the
+     * {@link #asyncHelper()} executor. Tasks submitted beyond the quota are queued until
+     * the plugin's running tasks complete.
+     *
+     * <p>Tasks are attributed to the plugin which defined the task class.</p>
+     *
+     * @param plugin the plugin
+     * @param quota the maximum number of concurrently executing tasks, or 0 for no limit
+     */
+    public static void setAsyncQuota(Plugin plugin, int quota) {
+        Objects.requireNonNull(plugin, "plugin");
+        ASYNC_HELPER.setPluginQuota(plugin.getName(), quota);
+    }
+
     public static void shutdown() {
         ASYNC_HELPER.cancelRepeatingTasks();
+        SYNC_HELPER.shutdown();
+        TIMER.stop();
     }
 
     private static final class BukkitSyncExecutor implements Executor {
@@ -0,0 +1,191 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.scheduler;
+
+import me.lucko.helper.internal.LoaderUtils;
+import me.lucko.helper.internal.exception.HelperExceptions;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes tasks on the main server thread.
+ *
+ * <p>Rather than scheduling a Bukkit task per submission, tasks are queued and drained
+ * by a single repeating task. Each tick, tasks are executed in {@link SyncPriority}
+ * order until the tick budget is used up, and the remainder are carried over to the
+ * next tick. At least one task is always executed per tick.</p>
+ *
+ * <p>The budget can be configured using the <b>helper.scheduler.sync-budget</b> system
+ * property, in milliseconds. Defaults to 5ms, 0 disables the limit.</p>
+ */
+final class HelperSyncExecutor implements SyncExecutorMetrics {
+    private static final SyncPriority[] PRIORITIES = SyncPriority.values();
+
+    @SuppressWarnings("unchecked")
+    private final Queue<Runnable>[] lanes = new Queue[PRIORITIES.length];
+    private final Executor[] laneExecutors = new Executor[PRIORITIES.length];
+    private final AtomicIntegerArray laneSizes = new AtomicIntegerArray(PRIORITIES.length);
+    private final AtomicInteger queued = new AtomicInteger(0);
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private volatile long lastTickNanos = 0;
+    private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("helper.scheduler.sync-budget", 5L));
+
+    private final Object drainLock = new Object();
+    private volatile BukkitTask drainTask = null;
+
+    HelperSyncExecutor() {
+        for (SyncPriority priority : PRIORITIES) {
+            this.lanes[priority.ordinal()] = new ConcurrentLinkedQueue<>();
+            this.laneExecutors[priority.ordinal()] = runnable -> submit(priority, runnable);
+        }
+    }
+
+    Executor lane(SyncPriority priority) {
+        return this.laneExecutors[priority.ordinal()];
+    }
+
+    void setTickBudget(long budget, TimeUnit unit) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget < 0");
+        }
+        this.budgetNanos = unit.toNanos(budget);
+    }
+
+    private void submit(SyncPriority priority, Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        this.lanes[priority.ordinal()].add(HelperExceptions.wrapSchedulerTask(runnable));
+        this.laneSizes.incrementAndGet(priority.ordinal());
+        this.queued.incrementAndGet();
+        ensureDraining();
+    }
+
+    private void ensureDraining() {
+        if (this.drainTask != null) {
+            return;
+        }
+        synchronized (this.drainLock) {
+            if (this.drainTask == null) {
+                this.drainTask = Bukkit.getScheduler().runTaskTimer(LoaderUtils.getPlugin(), this::drain, 1L, 1L);
+            }
+        }
+    }
+
+    private void drain() {
+        // only consider tasks which were queued before this tick started, so tasks which
+        // resubmit themselves can't keep the drain going indefinitely
+        int limit = this.queued.get();
+        if (limit == 0) {
+            this.lastTickNanos = 0;
+            return;
+        }
+
+        long budget = this.budgetNanos;
+        long start = System.nanoTime();
+        long now = start;
+        int ran = 0;
+
+        while (ran < limit && (ran == 0 || budget == 0 || now - start < budget)) {
+            Runnable task = poll();
+            if (task == null) {
+                break;
+            }
+            task.run();
+            this.completed.increment();
+            ran++;
+            now = System.nanoTime();
+        }
+
+        this.lastTickNanos = now - start;
+
+        int remaining = limit - ran;
+        if (remaining > 0) {
+            this.deferred.add(remaining);
+        }
+    }
+
+    private Runnable poll() {
+        for (int i = 0; i < this.lanes.length; i++) {
+            Runnable task = this.lanes[i].poll();
+            if (task != null) {
+                this.laneSizes.decrementAndGet(i);
+                this.queued.decrementAndGet();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    void shutdown() {
+        synchronized (this.drainLock) {
+            if (this.drainTask != null) {
+                this.drainTask.cancel();
+                this.drainTask = null;
+            }
+        }
+    }
+
+    @Override
+    public int getQueuedTaskCount() {
+        return this.queued.get();
+    }
+
+    @Override
+    public int getQueuedTaskCount(SyncPriority priority) {
+        return this.laneSizes.get(priority.ordinal());
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return this.completed.sum();
+    }
+
+    @Override
+    public long getDeferredTaskCount() {
+        return this.deferred.sum();
+    }
+
+    @Override
+    public long getLastTickDuration(TimeUnit unit) {
+        return unit.convert(this.lastTickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getTickBudget(TimeUnit unit) {
+        return unit.convert(this.budgetNanos, TimeUnit.NANOSECONDS);
+    }
+}
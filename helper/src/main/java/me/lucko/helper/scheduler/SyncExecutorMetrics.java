@@ -0,0 +1,81 @@
+/*
+ * This file is part of helper, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.helper.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes runtime statistics about the {@link HelperExecutors#sync() sync} executor.
+ */
+public interface SyncExecutorMetrics {
+
+    /**
+     * Gets the number of tasks waiting to be executed.
+     *
+     * @return the queued task count
+     */
+    int getQueuedTaskCount();
+
+    /**
+     * Gets the number of tasks waiting to be executed in the given lane.
+     *
+     * @param priority the lane
+     * @return the queued task count
+     */
+    int getQueuedTaskCount(SyncPriority priority);
+
+    /**
+     * Gets the total number of tasks which have finished executing.
+     *
+     * @return the completed task count
+     */
+    long getCompletedTaskCount();
+
+    /**
+     * Gets the total number of times a queued task was carried over to the next tick
+     * because the tick budget had been used up.
+     *
+     * @return the deferred task count
+     */
+    long getDeferredTaskCount();
+
+    /**
+     * Gets how long the queue spent executing tasks in the last tick.
+     *
+     * @param unit the unit to return the duration in
+     * @return the duration
+     */
+    long getLastTickDuration(TimeUnit unit);
+
+    /**
+     * Gets the maximum amount of time the queue will spend executing tasks each tick.
+     *
+     * @param unit the unit to return the budget in
+     * @return the budget, or 0 if unlimited
+     */
+    long getTickBudget(TimeUnit unit);
+
+}
@@ -31,6 +31,7 @@ import me.lucko.helper.promise.ThreadContext;
 import org.bukkit.Bukkit;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
 final class ServerThreadLockImpl implements ServerThreadLock {
 
@@ -61,9 +62,21 @@ final class ServerThreadLockImpl implements ServerThreadLock {
     }
 
     private void await() {
-        // await sync with the server thread
+        // await sync with the server thread. this is usually called from the async
+        // pool, so let it compensate for the blocked worker
         try {
-            this.obtainedSignal.await();
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    ServerThreadLockImpl.this.obtainedSignal.await();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return ServerThreadLockImpl.this.obtainedSignal.getCount() == 0;
+                }
+            });
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
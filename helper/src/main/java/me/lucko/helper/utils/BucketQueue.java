@@ -1,7 +1,6 @@
 package me.lucko.helper.utils;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import me.lucko.helper.Schedulers;
 import me.lucko.helper.scheduler.Scheduler;
 import me.lucko.helper.scheduler.Task;
@@ -9,29 +8,50 @@ import me.lucko.helper.terminable.Terminable;
 import me.lucko.helper.terminable.TerminableConsumer;
 import org.bukkit.entity.Player;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+/**
+ * Processes a collection of objects over a number of ticks.
+ *
+ * <p>By default, a fixed number of objects ({@code partitionSize}) are processed every
+ * {@code interval} ticks. In adaptive mode, the number of objects processed each run is
+ * instead sized to fit within a time budget, using a moving average of the time taken
+ * to process each object.</p>
+ */
 public class BucketQueue<T> implements Terminable {
 
+    // weight given to the latest measurement in the per-object cost average
+    private static final double COST_ALPHA = 0.2;
+
     private final Consumer<T> consumer;
-    private final List<List<T>> partitions;
+    private final List<T> objects;
     private final boolean async;
     private final int interval;
-    private final AtomicInteger currentIndex = new AtomicInteger(0);
+    private final int partitionSize;
+    private final long budgetNanos;
+    private final double minTps;
+
+    private volatile int processed = 0;
+    private volatile double costNanos = 0;
+    private volatile boolean paused = false;
 
     private Task task;
 
-    private BucketQueue(Consumer<T> consumer, Collection<T> objects, int partitionSize, boolean async, int interval) {
+    private BucketQueue(Consumer<T> consumer, Collection<T> objects, int partitionSize, boolean async, int interval, long budgetNanos, double minTps) {
         this.consumer = consumer;
-        this.partitions = Lists.partition(new ArrayList<>(objects), partitionSize);
+        this.objects = new ArrayList<>(objects);
+        this.partitionSize = partitionSize;
         this.async = async;
         this.interval = interval;
+        this.budgetNanos = budgetNanos;
+        this.minTps = minTps;
     }
 
     public static <T> Builder<T> create(Collection<T> objects) {
@@ -54,21 +74,122 @@ public class BucketQueue<T> implements Terminable {
         if (task != null && !task.isClosed())
             throw new IllegalStateException("Queue is already running");
 
-        if (partitions.size() == 0)
+        if (objects.isEmpty())
             return;
 
         Scheduler scheduler = async ? Schedulers.async() : Schedulers.sync();
         task = scheduler.runRepeating(task -> {
-            int i = currentIndex.getAndIncrement();
-            if (i >= partitions.size()) {
+            if (processed >= objects.size()) {
                 close();
                 return;
             }
 
-            partitions.get(i).forEach(consumer);
+            paused = minTps > 0 && Tps.isReadSupported() && Tps.read().avg1() < minTps;
+            if (paused)
+                return;
+
+            if (isAdaptive())
+                processAdaptive();
+            else
+                process(Math.min(processed + partitionSize, objects.size()));
+
+            if (processed >= objects.size())
+                close();
         }, 0, interval);
     }
 
+    private void process(int end) {
+        int i = processed;
+        try {
+            while (i < end)
+                consumer.accept(objects.get(i++));
+        } finally {
+            // if the consumer throws, skip the failed object rather than replaying the partition
+            processed = i;
+        }
+    }
+
+    private void processAdaptive() {
+        int start = processed;
+        int limit = objects.size();
+
+        // before any measurements are taken, start with a single partition
+        double cost = costNanos;
+        if (cost > 0)
+            limit = (int) Math.min(limit, start + Math.max(1, (long) (budgetNanos / cost)));
+        else
+            limit = Math.min(limit, start + partitionSize);
+
+        long startTime = System.nanoTime();
+        long elapsed = 0;
+        int i = start;
+        try {
+            while (i < limit) {
+                consumer.accept(objects.get(i++));
+                elapsed = System.nanoTime() - startTime;
+
+                // the estimate was too optimistic, stop early & carry on next run
+                if (elapsed >= budgetNanos)
+                    break;
+            }
+        } finally {
+            processed = i;
+        }
+
+        double sample = (double) elapsed / (i - start);
+        costNanos = cost > 0 ? COST_ALPHA * sample + (1 - COST_ALPHA) * cost : sample;
+    }
+
+    public boolean isAdaptive() {
+        return budgetNanos > 0;
+    }
+
+    /**
+     * Gets if the queue skipped its last run because the server TPS was below
+     * the configured threshold.
+     *
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public int getTotal() {
+        return objects.size();
+    }
+
+    /**
+     * Gets the fraction of objects which have been processed.
+     *
+     * @return the progress, between 0 and 1
+     */
+    public double getProgress() {
+        return objects.isEmpty() ? 1 : (double) processed / objects.size();
+    }
+
+    /**
+     * Estimates how long it will take to process the remaining objects, assuming
+     * the queue isn't paused.
+     *
+     * @return the estimated time remaining
+     */
+    public Duration getEta() {
+        int remaining = objects.size() - processed;
+        if (remaining <= 0)
+            return Duration.ZERO;
+
+        double perRun = partitionSize;
+        if (isAdaptive() && costNanos > 0)
+            perRun = Math.max(1, budgetNanos / costNanos);
+
+        long runs = (long) Math.ceil(remaining / perRun);
+        return Duration.ofMillis(runs * interval * 50L);
+    }
+
     @Override
     public void close() {
         if (task != null)
@@ -83,6 +204,8 @@ public class BucketQueue<T> implements Terminable {
         private TerminableConsumer terminableConsumer;
         private boolean async;
         private int interval = 1;
+        private long budgetNanos = 0;
+        private double minTps = 0;
 
         private Builder() { }
 
@@ -106,18 +229,46 @@ public class BucketQueue<T> implements Terminable {
             return this;
         }
 
+        /**
+         * Enables adaptive mode, where each run processes as many objects as fit
+         * within the given budget. The partition size is used for the first run only.
+         *
+         * @param budget the time budget per run
+         * @param unit the unit of the budget
+         * @return this builder
+         */
+        public Builder<T> adaptive(long budget, TimeUnit unit) {
+            Preconditions.checkArgument(budget > 0, "budget must be positive");
+            this.budgetNanos = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * Pauses processing whilst the 1 minute TPS average is below the given threshold.
+         *
+         * @param minTps the tps threshold
+         * @return this builder
+         */
+        public Builder<T> pauseBelowTps(double minTps) {
+            this.minTps = minTps;
+            return this;
+        }
+
         public Builder<T> bindWith(TerminableConsumer terminableConsumer) {
             this.terminableConsumer = terminableConsumer;
             return this;
         }
 
         public BucketQueue<T> build() {
+            Preconditions.checkArgument(partitionSize > 0, "partitionSize must be positive");
             BucketQueue<T> bucket = new BucketQueue<>(
                     Preconditions.checkNotNull(consumer),
                     Preconditions.checkNotNull(objects),
                     partitionSize,
                     async,
-                    interval);
+                    interval,
+                    budgetNanos,
+                    minTps);
 
             if (terminableConsumer != null)
                 bucket.bindWith(terminableConsumer);
@@ -131,4 +282,4 @@ public class BucketQueue<T> implements Terminable {
             return bucket;
         }
     }
-}
\ No newline at end of file
+}